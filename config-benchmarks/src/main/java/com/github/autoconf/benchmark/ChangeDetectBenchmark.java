@@ -0,0 +1,49 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.ChangeableConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收到zookeeper或者本地文件通知后，判断内容是否真的发生变化的开销
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar ChangeDetectBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeDetectBenchmark {
+  @Param({"1024", "1048576", "8388608"})
+  public int size;
+  private ChangeableConfig config;
+  private byte[] same;
+  private byte[] changed;
+
+  @Setup
+  public void setup() {
+    byte[] payload = Payloads.kv(size);
+    config = new ChangeableConfig("bench");
+    config.copyOf(payload);
+    same = payload.clone();
+    changed = payload.clone();
+    changed[changed.length - 2] = '#';
+  }
+
+  /**
+   * 最常见的情况，内容没有变化，需要完整对比
+   */
+  @Benchmark
+  public boolean unchanged() {
+    return config.isChanged(same);
+  }
+
+  @Benchmark
+  public boolean changedAtTail() {
+    return config.isChanged(changed);
+  }
+}
@@ -0,0 +1,66 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.Config;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程并发读取配置，同时有1个线程不停的更新配置。
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar ConfigReadBenchmark
+ * </pre>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigReadBenchmark {
+  private Config config;
+  private byte[][] versions;
+  private int next;
+
+  @Setup
+  public void setup() {
+    config = new Config();
+    versions = new byte[][] {Payloads.kv(8 * 1024), Payloads.kv(8 * 1024 + 1)};
+    config.copyOf(versions[0]);
+    config.getAll();
+  }
+
+  @Benchmark
+  @Group("readOnly")
+  @GroupThreads(4)
+  public String get() {
+    return config.get("key.000100");
+  }
+
+  @Benchmark
+  @Group("readOnlyInt")
+  @GroupThreads(4)
+  public int getInt() {
+    return config.getInt("key.000100");
+  }
+
+  @Benchmark
+  @Group("readWhileReload")
+  @GroupThreads(4)
+  public String getWhileReload() {
+    return config.get("key.000100");
+  }
+
+  /**
+   * 模拟配置更新，每次更新后第一个读取的线程负责解析。
+   * 用consumeCPU控制更新频率，避免更新线程空转导致读线程一直在解析
+   */
+  @Benchmark
+  @Group("readWhileReload")
+  @GroupThreads(1)
+  public void reload() {
+    config.copyOf(versions[next++ & 1]);
+    Blackhole.consumeCPU(100000);
+  }
+}
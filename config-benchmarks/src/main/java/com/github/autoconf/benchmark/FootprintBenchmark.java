@@ -0,0 +1,73 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.Config;
+import com.github.autoconf.base.Snapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比普通map和紧凑存储两种kv表示方式。
+ * <pre>
+ * 1. parse 更新后首次访问kv内容的解析开销
+ * 2. get 按key查找的开销，紧凑存储每次都要生成value字符串
+ * 3. 每组参数结束时输出原始字节流加kv内容一共占用的内存(footprint)
+ *   java -jar config-benchmarks/target/benchmarks.jar FootprintBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FootprintBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  private int keys;
+  @Param({"map", "compact"})
+  private String storage;
+  private byte[] content;
+  private Config config;
+  private String[] names;
+  private int next;
+
+  @Setup
+  public void setup() {
+    Snapshot.setCompactThreshold("compact".equals(storage) ? 0 : Integer.MAX_VALUE);
+    content = Payloads.kv("value-", keys);
+    config = new Config();
+    config.copyOf(content);
+    config.getAll();
+    names = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      names[i] = Payloads.key(i);
+    }
+  }
+
+  @TearDown
+  public void footprint() {
+    Map<String, String> m = config.getAll();
+    long size = GraphLayout.parseInstance(content, m).totalSize();
+    System.out.printf("%nfootprint storage=%s keys=%d type=%s bytes=%d (%d B/key)%n", storage, keys, m.getClass().getSimpleName(), size, size / keys);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Map<String, String> parse() {
+    Config c = new Config();
+    c.copyOf(content);
+    return c.getAll();
+  }
+
+  @Benchmark
+  public void get(Blackhole bh) {
+    next = (next + 7919) % keys;
+    bh.consume(config.get(names[next]));
+  }
+}
@@ -0,0 +1,56 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.api.IChangeableConfig;
+import com.github.autoconf.base.ChangeableConfig;
+import com.github.autoconf.impl.MergedConfig;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个配置合并，其中1个配置更新后重新合并的开销
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar MergeBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+  @Param({"2", "4", "8"})
+  public int layers;
+  @Param({"100", "10000"})
+  public int keys;
+  private ChangeableConfig lowest;
+  private byte[][] versions;
+  private int next;
+  private MergedConfig merged;
+
+  @Setup
+  public void setup() {
+    List<IChangeableConfig> configs = Lists.newArrayList();
+    for (int i = 0; i < layers; i++) {
+      ChangeableConfig c = new ChangeableConfig("layer" + i);
+      c.copyOf(Payloads.kv("layer" + i + '-', keys));
+      configs.add(c);
+    }
+    lowest = (ChangeableConfig) configs.get(layers - 1);
+    versions = new byte[][] {Payloads.kv("v0-", keys), Payloads.kv("v1-", keys)};
+    merged = new MergedConfig(configs);
+  }
+
+  /**
+   * 优先级最低的配置发生变化，触发重新合并
+   */
+  @Benchmark
+  public MergedConfig updateLowestLayer() {
+    lowest.copyOf(versions[next++ & 1]);
+    lowest.notifyListeners();
+    return merged;
+  }
+}
@@ -0,0 +1,47 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.base.ChangeableConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置变更后通知大量listener的开销
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar NotifyBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotifyBenchmark {
+  @Param({"1", "10", "100", "1000"})
+  public int listeners;
+  private ChangeableConfig config;
+  private int hits;
+
+  @Setup
+  public void setup() {
+    config = new ChangeableConfig("bench");
+    config.copyOf(Payloads.kv("v-", 100));
+    for (int i = 0; i < listeners; i++) {
+      config.addListener(new IChangeListener() {
+        @Override
+        public void changed(IConfig config) {
+          hits += config.getInt("key.000001");
+        }
+      }, false);
+    }
+  }
+
+  @Benchmark
+  public int notifyListeners() {
+    config.notifyListeners();
+    return hits;
+  }
+}
@@ -0,0 +1,42 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.Config;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置更新后首次访问kv内容的解析开销，按照配置大小分别测试
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar ParseBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+  @Param({"1024", "65536", "1048576", "8388608"})
+  public int size;
+  private byte[] payload;
+  private Config config;
+
+  @Setup(Level.Trial)
+  public void prepare() {
+    payload = Payloads.kv(size);
+  }
+
+  @Setup(Level.Invocation)
+  public void reload() {
+    config = new Config();
+    config.copyOf(payload);
+  }
+
+  @Benchmark
+  public Map<String, String> firstAccess() {
+    return config.getAll();
+  }
+}
@@ -0,0 +1,49 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.Config;
+
+/**
+ * 生成性能测试用的配置内容
+ */
+public class Payloads {
+  private Payloads() {
+  }
+
+  /**
+   * 生成指定大小的kv格式配置，每行形如 "key.000123 = 123"，夹杂少量注释行
+   *
+   * @param bytes 期望的字节数
+   * @return UTF8编码的配置内容
+   */
+  public static byte[] kv(int bytes) {
+    StringBuilder sbd = new StringBuilder(bytes + 64);
+    int i = 0;
+    while (sbd.length() < bytes) {
+      if (i % 50 == 0) {
+        sbd.append("# section ").append(i).append('\n');
+      }
+      sbd.append(key(i)).append(" = ").append(i).append('\n');
+      i++;
+    }
+    return sbd.toString().getBytes(Config.UTF8);
+  }
+
+  /**
+   * 生成指定行数的kv格式配置
+   *
+   * @param prefix key的前缀
+   * @param keys   行数
+   * @return UTF8编码的配置内容
+   */
+  public static byte[] kv(String prefix, int keys) {
+    StringBuilder sbd = new StringBuilder(keys * 24);
+    for (int i = 0; i < keys; i++) {
+      sbd.append(key(i)).append('=').append(prefix).append(i).append('\n');
+    }
+    return sbd.toString().getBytes(Config.UTF8);
+  }
+
+  public static String key(int i) {
+    return String.format("key.%06d", i);
+  }
+}
@@ -0,0 +1,94 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.RemoteConfigFactory;
+import com.github.autoconf.base.ProcessInfo;
+import com.github.autoconf.helper.ConfigHelper;
+import com.github.autoconf.helper.ZookeeperUtil;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.utils.ZKPaths;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务启动时加载一批zookeeper配置的耗时，逐个getConfig和preload批量加载对比。
+ * 每个配置的ip路径存在但是内容为空，需要继续读取profile路径，也就是串行方式每个配置3次往返。
+ * 内嵌zookeeper的往返时间很短，真实网络环境下两者的差距会更大
+ * <pre>
+ * java -jar config-benchmarks/target/benchmarks.jar StartupBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(1)
+public class StartupBenchmark {
+  @Param({"10", "40"})
+  public int configs;
+  private TestingServer server;
+  private ProcessInfo info;
+  private List<String> names;
+  /**
+   * 每次测量使用新的连接，避免watcher在同一个连接上越积越多
+   */
+  private CuratorFramework client;
+  private RemoteConfigFactory factory;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    server = new TestingServer();
+    info = new ProcessInfo();
+    info.setPath("/bench/config");
+    info.setIp("10.0.0.1");
+    info.setProfile("test");
+    names = Lists.newArrayList();
+    CuratorFramework c = ConfigHelper.newClient(server.getConnectString());
+    try {
+      for (int i = 0; i < configs; i++) {
+        String name = "app" + i + ".ini";
+        names.add(name);
+        ZookeeperUtil.create(c, ZKPaths.makePath(info.getPath(), name, info.getIp()), new byte[0]);
+        ZookeeperUtil.create(c, ZKPaths.makePath(info.getPath(), name, info.getProfile()), Payloads.kv(64));
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void connect() throws Exception {
+    client = ConfigHelper.newClient(server.getConnectString());
+    client.blockUntilConnected();
+    factory = new RemoteConfigFactory(info, client);
+  }
+
+  @TearDown(Level.Iteration)
+  public void disconnect() {
+    client.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Closeables.close(server, true);
+  }
+
+  @Benchmark
+  public RemoteConfigFactory serial() {
+    for (String i : names) {
+      factory.getConfig(i);
+    }
+    return factory;
+  }
+
+  @Benchmark
+  public RemoteConfigFactory preload() {
+    factory.preload(names);
+    return factory;
+  }
+}
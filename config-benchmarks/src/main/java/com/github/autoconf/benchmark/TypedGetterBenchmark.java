@@ -0,0 +1,66 @@
+package com.github.autoconf.benchmark;
+
+import com.github.autoconf.base.Config;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试getInt等类型方法的读取开销。
+ * <pre>
+ * 配置没有更新的时候，解析结果来自快照内的缓存，读取不应该产生任何对象。
+ * 使用 -prof gc 运行，gc.alloc.rate.norm 应该接近 0 B/op:
+ *   java -jar config-benchmarks/target/benchmarks.jar TypedGetterBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypedGetterBenchmark {
+  private Config config;
+
+  @Setup
+  public void setup() {
+    config = new Config();
+    config.copyOf("max.connections = 200\ntimeout.millis=1500000000000\nratio=0.75\nenabled=true\nname=demo\n");
+    //首次读取触发解析
+    config.getAll();
+  }
+
+  @Benchmark
+  public int getInt() {
+    return config.getInt("max.connections");
+  }
+
+  @Benchmark
+  public long getLong() {
+    return config.getLong("timeout.millis");
+  }
+
+  @Benchmark
+  public double getDouble() {
+    return config.getDouble("ratio");
+  }
+
+  @Benchmark
+  public boolean getBool() {
+    return config.getBool("enabled");
+  }
+
+  @Benchmark
+  public int getIntMissing() {
+    return config.getInt("not.exist", 10);
+  }
+
+  @Benchmark
+  public void getAllTypes(Blackhole bh) {
+    bh.consume(config.getInt("max.connections"));
+    bh.consume(config.getLong("timeout.millis"));
+    bh.consume(config.getDouble("ratio"));
+    bh.consume(config.getBool("enabled"));
+  }
+}
@@ -4,17 +4,47 @@ import com.github.autoconf.api.IChangeableConfig;
 import com.github.autoconf.base.AbstractConfigFactory;
 import com.github.autoconf.base.ProcessInfo;
 import com.github.autoconf.helper.ConfigHelper;
+import com.github.autoconf.impl.ConfigTree;
 import com.github.autoconf.impl.RemoteConfig;
+import com.github.autoconf.impl.TreeCacheConfig;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 只拉取zookeeper配置的工厂类
  * Created by lirui on 2015-10-01 22:25.
  */
 public class RemoteConfigFactory extends AbstractConfigFactory {
+  private static final Logger LOG = LoggerFactory.getLogger(RemoteConfigFactory.class);
   private final ProcessInfo info;
   private final CuratorFramework client;
+  /**
+   * 变更通知的合并窗口，可以通过系统属性 autoconf.coalesceMillis 设置，默认不合并
+   */
+  private long coalesceMillis = Long.getLong("autoconf.coalesceMillis", 0L);
+  /**
+   * 合并时从第1次变更开始的最大等待时间，可以通过系统属性 autoconf.coalesceMaxDelayMillis 设置
+   */
+  private long coalesceMaxDelayMillis = Long.getLong("autoconf.coalesceMaxDelayMillis", 5000L);
+  /**
+   * 批量加载时等待zookeeper返回的最长时间，可以通过系统属性 autoconf.preloadTimeoutMillis 设置
+   */
+  private long preloadTimeoutMillis = Long.getLong("autoconf.preloadTimeoutMillis", 10000L);
+  /**
+   * 所有配置共享1个TreeCache，可以通过系统属性 autoconf.sharedTree 设置
+   */
+  private volatile boolean sharedTree = Boolean.getBoolean("autoconf.sharedTree");
+  private ConfigTree tree;
 
   public RemoteConfigFactory(ProcessInfo info, CuratorFramework client) {
     this.info = info;
@@ -33,6 +63,64 @@ public class RemoteConfigFactory extends AbstractConfigFactory {
     return client;
   }
 
+  public long getCoalesceMillis() {
+    return coalesceMillis;
+  }
+
+  public long getCoalesceMaxDelayMillis() {
+    return coalesceMaxDelayMillis;
+  }
+
+  /**
+   * 设置变更通知的合并窗口，只影响之后创建的配置
+   *
+   * @param windowMillis   合并窗口，0表示不合并
+   * @param maxDelayMillis 从第1次变更开始的最大等待时间
+   */
+  public void setCoalescing(long windowMillis, long maxDelayMillis) {
+    this.coalesceMillis = windowMillis;
+    this.coalesceMaxDelayMillis = maxDelayMillis;
+  }
+
+  public long getPreloadTimeoutMillis() {
+    return preloadTimeoutMillis;
+  }
+
+  public void setPreloadTimeoutMillis(long preloadTimeoutMillis) {
+    this.preloadTimeoutMillis = preloadTimeoutMillis;
+  }
+
+  public boolean isSharedTree() {
+    return sharedTree;
+  }
+
+  /**
+   * 设置之后创建的配置是否从共享的TreeCache读取，不再各自注册zookeeper watcher
+   *
+   * @param sharedTree true表示使用共享TreeCache
+   */
+  public void setSharedTree(boolean sharedTree) {
+    this.sharedTree = sharedTree;
+  }
+
+  /**
+   * 共享模式使用的TreeCache，根目录是ProcessInfo.getPath()，第1次调用时启动并等待初始化完成
+   *
+   * @return 共享的配置树
+   */
+  public synchronized ConfigTree getTree() {
+    if (tree == null) {
+      ConfigTree t = new ConfigTree(client, info.getPath());
+      try {
+        t.start(preloadTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (Exception e) {
+        LOG.error("cannot start {}", t, e);
+      }
+      tree = t;
+    }
+    return tree;
+  }
+
   /**
    * 创建LocalConfig并增加更新回调功能
    *
@@ -41,12 +129,66 @@ public class RemoteConfigFactory extends AbstractConfigFactory {
    */
   @Override
   protected IChangeableConfig doCreate(String name) {
-    String path = ZKPaths.makePath(info.getPath(), name);
-    RemoteConfig c = new RemoteConfig(name, path, info.orderedPath(), client);
+    RemoteConfig c = newRemoteConfig(name);
     c.start();
     return c;
   }
 
+  /**
+   * 所有配置同时异步加载，总耗时接近1次getChildren加1次getData的往返时间。
+   * 超时的配置仍然在后台继续加载，zookeeper出错的配置退回到同步加载
+   *
+   * @param names 还没有加载过的配置名
+   * @return 配置名到配置的映射
+   */
+  @Override
+  protected Map<String, IChangeableConfig> doCreateAll(Collection<String> names) {
+    Map<String, IChangeableConfig> created = Maps.newLinkedHashMap();
+    Map<RemoteConfig, ListenableFuture<Boolean>> futures = Maps.newLinkedHashMap();
+    for (String i : names) {
+      RemoteConfig c = newRemoteConfig(i);
+      created.put(i, c);
+      futures.put(c, c.startAsync());
+    }
+    long deadline = System.currentTimeMillis() + preloadTimeoutMillis;
+    for (Map.Entry<RemoteConfig, ListenableFuture<Boolean>> i : futures.entrySet()) {
+      RemoteConfig c = i.getKey();
+      try {
+        long left = Math.max(0, deadline - System.currentTimeMillis());
+        if (!i.getValue().get(left, TimeUnit.MILLISECONDS)) {
+          c.start();
+        }
+      } catch (TimeoutException e) {
+        LOG.warn("preload {} timeout, path:{}", c.getName(), c.getPath());
+      } catch (ExecutionException e) {
+        LOG.error("cannot preload {}, path:{}", c.getName(), c.getPath(), e);
+        c.start();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return created;
+  }
+
+  /**
+   * 创建还没有开始加载的配置对象
+   *
+   * @param name 配置名
+   * @return 配置
+   */
+  protected RemoteConfig newRemoteConfig(String name) {
+    String path = ZKPaths.makePath(info.getPath(), name);
+    RemoteConfig c;
+    if (sharedTree) {
+      c = new TreeCacheConfig(name, path, info.orderedPath(), getTree());
+    } else {
+      c = new RemoteConfig(name, path, info.orderedPath(), client);
+    }
+    c.setCoalescing(coalesceMillis, coalesceMaxDelayMillis);
+    return c;
+  }
+
   private static class LazyHolder {
     private static final RemoteConfigFactory instance = new RemoteConfigFactory(ConfigHelper.getProcessInfo(), ConfigHelper.getDefaultClient());
   }
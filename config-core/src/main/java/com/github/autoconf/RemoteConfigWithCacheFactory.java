@@ -1,8 +1,8 @@
 package com.github.autoconf;
 
-import com.github.autoconf.api.IChangeableConfig;
 import com.github.autoconf.base.ProcessInfo;
 import com.github.autoconf.helper.ConfigHelper;
+import com.github.autoconf.impl.RemoteConfig;
 import com.github.autoconf.impl.RemoteConfigWithCache;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.utils.ZKPaths;
@@ -16,6 +16,10 @@ import java.nio.file.Path;
  */
 public class RemoteConfigWithCacheFactory extends RemoteConfigFactory {
   private final Path path;
+  /**
+   * 缓存文件超过这个大小就使用文件映射,可以通过系统属性 autoconf.mmapThreshold 设置,默认不使用
+   */
+  private long mmapThreshold = Long.getLong("autoconf.mmapThreshold", Long.MAX_VALUE);
 
   public RemoteConfigWithCacheFactory(Path localConfigPath, ProcessInfo info, CuratorFramework client) {
     super(info, client);
@@ -35,19 +39,38 @@ public class RemoteConfigWithCacheFactory extends RemoteConfigFactory {
     return path;
   }
 
+  public long getMmapThreshold() {
+    return mmapThreshold;
+  }
+
+  /**
+   * 设置使用文件映射的缓存文件大小,只影响之后创建的配置
+   *
+   * @param mmapThreshold 字节数
+   */
+  public void setMmapThreshold(long mmapThreshold) {
+    this.mmapThreshold = mmapThreshold;
+  }
+
   /**
-   * 创建LocalConfig并增加更新回调功能
+   * 创建带本地缓存的配置,共享模式下远程配置从共享的TreeCache读取
    *
    * @param name 配置名
    * @return 配置
    */
   @Override
-  protected IChangeableConfig doCreate(String name) {
+  protected RemoteConfig newRemoteConfig(String name) {
     ProcessInfo info = getInfo();
     String path = ZKPaths.makePath(info.getPath(), name);
     File cacheFile = this.path.resolve(name).toFile();
-    RemoteConfigWithCache c = new RemoteConfigWithCache(name, path, info.orderedPath(), getClient(), cacheFile);
-    c.start();
+    RemoteConfigWithCache c;
+    if (isSharedTree()) {
+      c = new RemoteConfigWithCache(name, path, info.orderedPath(), getTree(), cacheFile);
+    } else {
+      c = new RemoteConfigWithCache(name, path, info.orderedPath(), getClient(), cacheFile);
+    }
+    c.setMmapThreshold(mmapThreshold);
+    c.setCoalescing(getCoalesceMillis(), getCoalesceMaxDelayMillis());
     return c;
   }
 
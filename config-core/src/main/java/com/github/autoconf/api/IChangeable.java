@@ -1,5 +1,7 @@
 package com.github.autoconf.api;
 
+import java.util.Set;
+
 /**
  * 配置更改回调功能
  * Created by lirui on 15/9/24.
@@ -21,12 +23,53 @@ public interface IChangeable {
   void addListener(IChangeListener listener, boolean loadAfterRegister);
 
   /**
-   * 去掉listener
+   * 注册只关心部分key的回调方法，只有这些key新增、删除或者修改时才回调，并且会马上调用1次回调函数
+   *
+   * @param keys     关心的key
+   * @param listener 更新回调方法
+   */
+  void addListener(Set<String> keys, IChangeListener listener);
+
+  /**
+   * 注册只关心部分key的回调方法，只有这些key新增、删除或者修改时才回调
+   *
+   * @param keys              关心的key
+   * @param listener          更新回调方法
+   * @param loadAfterRegister 注册后立即调用回调函数
+   */
+  void addListener(Set<String> keys, IChangeListener listener, boolean loadAfterRegister);
+
+  /**
+   * 注册只关心指定前缀key的回调方法，只有以prefix开头的key发生变化时才回调
+   *
+   * @param prefix            key的前缀
+   * @param listener          更新回调方法
+   * @param loadAfterRegister 注册后立即调用回调函数
+   */
+  void addPrefixListener(String prefix, IChangeListener listener, boolean loadAfterRegister);
+
+  /**
+   * 去掉listener，包括按key和按前缀注册的
    *
    * @param listener 更新回调函数
    */
   void removeListener(IChangeListener listener);
 
+  /**
+   * 注册按key接收变化的回调方法，每次更新的差异只计算1次，所有回调共享
+   *
+   * @param listener          更新回调方法
+   * @param loadAfterRegister 注册后立即调用回调函数，这时所有key都当作新增
+   */
+  void addDiffListener(IDiffListener listener, boolean loadAfterRegister);
+
+  /**
+   * 去掉按key接收变化的listener
+   *
+   * @param listener 更新回调函数
+   */
+  void removeDiffListener(IDiffListener listener);
+
   /**
    * 通知所有注册的回调函数
    */
@@ -11,4 +11,11 @@ public interface IChangeableConfig extends IConfig, IChangeable {
    * @return 配置文件名
    */
   String getName();
+
+  /**
+   * 打开1个拉取更新的游标，第1次poll返回当前版本。游标内部注册了listener，不用时需要关闭
+   *
+   * @return 游标
+   */
+  IConfigCursor cursor();
 }
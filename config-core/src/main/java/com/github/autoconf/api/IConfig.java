@@ -1,5 +1,7 @@
 package com.github.autoconf.api;
 
+import com.google.common.base.Function;
+
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
@@ -92,6 +94,20 @@ public interface IConfig {
    */
   Map<String, String> getAll();
 
+  /**
+   * 获取配置内容的版本号，每次内容更新都会变大，可以作为缓存的key
+   *
+   * @return 版本号
+   */
+  long getVersion();
+
+  /**
+   * 获取配置内容的64位hash，内容相同hash也相同
+   *
+   * @return hash值
+   */
+  long getContentHash();
+
   /**
    * 获取配置的字节流信息
    *
@@ -117,7 +133,7 @@ public interface IConfig {
   /**
    * 获取UTF8编码的文件行，默认会去掉 '#' 和 '/' 开头的注释行，并且把内容做trim
    *
-   * @return 文件行
+   * @return 只读的文件行，同一个版本的配置多次调用返回同一个对象
    */
   List<String> getLines();
 
@@ -125,7 +141,7 @@ public interface IConfig {
    * 获取指定编码的文件行，默认会去掉 '#' 和 '/' 开头的注释行，并且把内容做trim
    *
    * @param charset 指定编码
-   * @return 文件行
+   * @return 只读的文件行
    */
   List<String> getLines(Charset charset);
 
@@ -134,7 +150,71 @@ public interface IConfig {
    *
    * @param charset       指定编码
    * @param removeComment 是否去掉 '#' 和 '/' 开头的注释行
-   * @return 文件行
+   * @return 只读的文件行
    */
   List<String> getLines(Charset charset, boolean removeComment);
+
+  /**
+   * 判断UTF8编码的文件行(去掉注释行并做trim)中是否包含指定内容，适合黑白名单这类按行保存的配置。
+   * 查找用的集合每个版本只构建1次，所有调用方共享
+   *
+   * @param line 查找的内容，需要调用方先做trim
+   * @return 包含返回true
+   */
+  boolean containsLine(String line);
+
+  /**
+   * 使用Bloom过滤器判断文件行中是否可能包含指定内容，占用内存比containsLine小很多，适合做前置过滤。
+   * 返回false表示一定不包含，返回true表示可能包含(误判率1%)
+   *
+   * @param line 查找的内容，需要调用方先做trim
+   * @return 可能包含返回true
+   */
+  boolean mightContainLine(String line);
+
+  /**
+   * 把文件行当作数字列表，判断是否包含指定数值，比如用户id白名单。不是数字的行会被忽略。
+   * 数字保存在排好序的long数组中，int类型的数值也可以直接使用
+   *
+   * @param value 查找的数值
+   * @return 包含返回true
+   */
+  boolean containsLong(long value);
+
+  /**
+   * 获取结构化配置(json/yaml等)解析出来的树，每个版本只解析1次。
+   * 节点是Map、List、String、Number、Boolean，按key取值时使用展开以后的路径，比如 getInt("pool.max")、get("servers[0].host")
+   *
+   * @return 根节点，kv格式的配置返回所有kv
+   */
+  Object getTree();
+
+  /**
+   * 获取指定前缀的子集视图，比如 subset("db.").get("master.url") 等价于 get("db.master.url")。
+   * 子集不复制kv内容，通过排好序的key索引定位前缀范围，原配置更新以后子集自动跟着变化
+   *
+   * @param prefix key的前缀，比如 "db."
+   * @return 只读的子集视图，getAll返回的key都去掉了前缀
+   */
+  IConfig subset(String prefix);
+
+  /**
+   * 获取基于配置构建的对象，比如编译好的正则列表、解析好的规则树。
+   * 同一个id按配置版本缓存，版本变化后第1次使用时重新构建，所有调用方共享同1份
+   *
+   * @param id      对象标识，同一个id应该总是使用同样的builder
+   * @param builder 构建方法
+   * @return 当前版本对应的对象
+   */
+  <T> T derive(String id, Function<? super IConfig, ? extends T> builder);
+
+  /**
+   * 获取基于配置构建的对象，按配置版本缓存
+   *
+   * @param id         对象标识，同一个id应该总是使用同样的builder
+   * @param builder    构建方法
+   * @param background 已经有旧对象时是否在后台线程中重建，重建完成前先返回旧对象
+   * @return 当前版本对应的对象，后台重建期间返回旧版本对应的对象
+   */
+  <T> T derive(String id, Function<? super IConfig, ? extends T> builder, boolean background);
 }
@@ -0,0 +1,56 @@
+package com.github.autoconf.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按需拉取配置更新的游标，适合不方便在通知线程里处理更新的异步服务。
+ * 每次拿到的都是最新版本的只读快照，处理慢的时候直接跳过中间版本，不会积压
+ */
+public interface IConfigCursor extends Closeable {
+  /**
+   * 上次取走的版本号，还没取过返回0
+   *
+   * @return 版本号
+   */
+  long getVersion();
+
+  /**
+   * 是否有还没取走的新版本
+   *
+   * @return 有新版本返回true
+   */
+  boolean hasChanged();
+
+  /**
+   * 不等待，取走最新版本
+   *
+   * @return 没有新版本返回null
+   */
+  IConfig poll();
+
+  /**
+   * 等待新版本
+   *
+   * @param timeout 最长等待时间
+   * @param unit    时间单位
+   * @return 超时返回null
+   * @throws InterruptedException 等待被中断
+   */
+  IConfig poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /**
+   * 有新版本时完成的future，完成时已经取走了这个版本。同一时间只保留1个未完成的future，再次调用返回同一个
+   *
+   * @return 完成后的值是最新版本的只读快照
+   */
+  ListenableFuture<IConfig> next();
+
+  /**
+   * 关闭游标，不再接收通知，未完成的future会被取消
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,73 @@
+package com.github.autoconf.api;
+
+import java.util.Set;
+
+/**
+ * 配置更新前后按key对比的差异，每次更新只计算1次，所有listener共享
+ */
+public interface IConfigDiff {
+  /**
+   * 更新前的配置版本号
+   *
+   * @return 版本号
+   */
+  long getOldVersion();
+
+  /**
+   * 更新后的配置版本号
+   *
+   * @return 版本号
+   */
+  long getNewVersion();
+
+  /**
+   * 是否没有任何key发生变化，比如只修改了注释
+   *
+   * @return 没有变化返回true
+   */
+  boolean isEmpty();
+
+  /**
+   * 新增的key
+   *
+   * @return 只读集合
+   */
+  Set<String> getAdded();
+
+  /**
+   * 删除的key
+   *
+   * @return 只读集合
+   */
+  Set<String> getRemoved();
+
+  /**
+   * value发生变化的key
+   *
+   * @return 只读集合
+   */
+  Set<String> getChanged();
+
+  /**
+   * 所有发生变化的key，包括新增、删除和修改
+   *
+   * @return 只读集合
+   */
+  Set<String> getKeys();
+
+  /**
+   * 更新前的value
+   *
+   * @param key 发生变化的key
+   * @return 新增的key或者没有变化的key返回null
+   */
+  String getOldValue(String key);
+
+  /**
+   * 更新后的value
+   *
+   * @param key 发生变化的key
+   * @return 删除的key或者没有变化的key返回null
+   */
+  String getNewValue(String key);
+}
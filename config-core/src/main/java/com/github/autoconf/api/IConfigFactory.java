@@ -1,5 +1,7 @@
 package com.github.autoconf.api;
 
+import java.util.Collection;
+
 /**
  * 获取配置的工厂类
  * Created by lirui on 2015/9/23.
@@ -39,4 +41,12 @@ public interface IConfigFactory {
    * @return 如果已经加载对应配置则返回true
    */
   boolean hasConfig(String name);
+
+  /**
+   * 批量预先加载配置，适合服务启动时一次性准备好所有配置，之后getConfig直接返回已加载的对象。
+   * 远程配置会同时发出所有读取请求，而不是逐个配置、逐个路径串行读取
+   *
+   * @param names 配置名称，每个都可以是逗号分隔的多个配置名
+   */
+  void preload(Collection<String> names);
 }
@@ -0,0 +1,14 @@
+package com.github.autoconf.api;
+
+/**
+ * 按key接收配置变化的回调，不需要自己再对比整个配置
+ */
+public interface IDiffListener {
+  /**
+   * 配置更新，只有key或者value真正变化的时候才会回调
+   *
+   * @param config 更新后的配置
+   * @param diff   更新前后的差异
+   */
+  void changed(IConfig config, IConfigDiff diff);
+}
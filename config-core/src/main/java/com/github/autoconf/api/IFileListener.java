@@ -11,7 +11,7 @@ public interface IFileListener {
    * 文件修改通知
    *
    * @param path    文件路径
-   * @param content 文件内容
+   * @param content 文件内容,文件长度超过注册时给定的上限时为null
    */
   void changed(Path path, byte[] content);
 }
@@ -0,0 +1,25 @@
+package com.github.autoconf.api;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 结构化配置(json/yaml/ini等)的解析器，每个配置版本只解析1次
+ */
+public interface IFormat {
+  /**
+   * 格式名称，比如json
+   *
+   * @return 名称
+   */
+  String getName();
+
+  /**
+   * 从字符流中解析出树形结构，节点只能是Map(保持原有顺序)、List、String、Number、Boolean或者null
+   *
+   * @param reader 配置内容，不需要先读成完整的字符串
+   * @return 根节点
+   * @throws IOException 读取失败或者格式错误
+   */
+  Object parse(Reader reader) throws IOException;
+}
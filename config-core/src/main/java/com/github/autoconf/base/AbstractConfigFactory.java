@@ -7,9 +7,14 @@ import com.github.autoconf.impl.MergedConfig;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -17,7 +22,51 @@ import java.util.concurrent.ConcurrentMap;
  * Created by lirui on 2015-09-30 22:25.
  */
 public abstract class AbstractConfigFactory implements IConfigFactory {
+  private static final CharMatcher SEPARATOR = CharMatcher.anyOf(",; |");
   private final ConcurrentMap<String, IChangeableConfig> m = Maps.newConcurrentMap();
+  private volatile Dispatcher dispatcher;
+  private volatile boolean mergeLookup = Boolean.getBoolean("autoconf.mergeLookup");
+  private volatile boolean structuredFormat = Boolean.getBoolean("autoconf.structuredFormat");
+
+  public Dispatcher getDispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * 设置之后创建的配置都使用异步通知listener
+   *
+   * @param dispatcher 异步通知，为null表示在发现变化的线程中依次通知
+   */
+  public void setDispatcher(Dispatcher dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  public boolean isMergeLookup() {
+    return mergeLookup;
+  }
+
+  /**
+   * 设置之后创建的合并配置(名字里用逗号等分隔的多个配置)是否使用查找链模式
+   *
+   * @param mergeLookup true表示不复制合并结果，按优先级依次查找各层
+   */
+  public void setMergeLookup(boolean mergeLookup) {
+    this.mergeLookup = mergeLookup;
+  }
+
+  public boolean isStructuredFormat() {
+    return structuredFormat;
+  }
+
+  /**
+   * 设置之后创建的配置是否根据扩展名使用结构化格式，.json使用json，.yaml和.yml使用yaml。
+   * 默认关闭，已有的同名配置可能是kv格式
+   *
+   * @param structuredFormat true表示根据扩展名选择格式
+   */
+  public void setStructuredFormat(boolean structuredFormat) {
+    this.structuredFormat = structuredFormat;
+  }
 
   @Override
   public IChangeableConfig getConfig(String name) {
@@ -26,11 +75,7 @@ public abstract class AbstractConfigFactory implements IConfigFactory {
       synchronized (this) {
         c = m.get(name);
         if (c == null) {
-          c = newConfig(name);
-          IChangeableConfig real = m.putIfAbsent(name, c);
-          if (real != null) {
-            c = real;
-          }
+          c = register(name, newConfig(name));
         }
       }
     }
@@ -54,19 +99,83 @@ public abstract class AbstractConfigFactory implements IConfigFactory {
     return m.containsKey(name);
   }
 
+  /**
+   * 先把还没加载的单个配置交给doCreateAll一起创建，再创建合并配置
+   *
+   * @param names 配置名称，每个都可以是逗号分隔的多个配置名
+   */
+  @Override
+  public void preload(Collection<String> names) {
+    Set<String> missing = Sets.newLinkedHashSet();
+    for (String name : names) {
+      for (String i : split(name)) {
+        if (!m.containsKey(i)) {
+          missing.add(i);
+        }
+      }
+    }
+    if (!missing.isEmpty()) {
+      synchronized (this) {
+        for (String i : ImmutableList.copyOf(missing)) {
+          if (m.containsKey(i)) {
+            missing.remove(i);
+          }
+        }
+        if (!missing.isEmpty()) {
+          for (Map.Entry<String, IChangeableConfig> i : doCreateAll(missing).entrySet()) {
+            register(i.getKey(), i.getValue());
+          }
+        }
+      }
+    }
+    for (String name : names) {
+      getConfig(name);
+    }
+  }
+
+  private IChangeableConfig register(String name, IChangeableConfig c) {
+    if (dispatcher != null && c instanceof ChangeableConfig) {
+      ((ChangeableConfig) c).setDispatcher(dispatcher);
+    }
+    if (structuredFormat && c instanceof Config && !SEPARATOR.matchesAnyOf(name)) {
+      ((Config) c).setFormat(Formats.forName(name));
+    }
+    IChangeableConfig real = m.putIfAbsent(name, c);
+    return real != null ? real : c;
+  }
+
+  private static List<String> split(String name) {
+    if (SEPARATOR.matchesAnyOf(name)) {
+      return Splitter.on(SEPARATOR).trimResults().omitEmptyStrings().splitToList(name);
+    }
+    return ImmutableList.of(name);
+  }
+
   private IChangeableConfig newConfig(String name) {
-    CharMatcher matcher = CharMatcher.anyOf(",; |");
-    if (matcher.matchesAnyOf(name)) {
-      List<String> names = Splitter.on(matcher).trimResults().omitEmptyStrings().splitToList(name);
+    if (SEPARATOR.matchesAnyOf(name)) {
       List<IChangeableConfig> list = Lists.newArrayList();
-      for (String i : names) {
+      for (String i : split(name)) {
         list.add(getConfig(i));
       }
-      return new MergedConfig(list);
+      return new MergedConfig(list, mergeLookup);
     } else {
       return doCreate(name);
     }
   }
 
   protected abstract IChangeableConfig doCreate(String name);
+
+  /**
+   * 批量创建单个配置，默认逐个调用doCreate，子类可以覆盖成并行加载
+   *
+   * @param names 还没有加载过的配置名
+   * @return 配置名到配置的映射
+   */
+  protected Map<String, IChangeableConfig> doCreateAll(Collection<String> names) {
+    Map<String, IChangeableConfig> created = Maps.newLinkedHashMap();
+    for (String i : names) {
+      created.put(i, doCreate(i));
+    }
+    return created;
+  }
 }
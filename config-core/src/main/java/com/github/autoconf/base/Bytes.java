@@ -0,0 +1,53 @@
+package com.github.autoconf.base;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 解析用的只读字节序列，可以是堆内数组，也可以是文件映射的buffer。
+ * <pre>
+ * 堆内数组直接按下标读取，比通过ByteBuffer读取快很多，所以没有统一包装成ByteBuffer；
+ * buffer只使用绝对位置读取，不修改position，多个线程可以同时读取
+ * </pre>
+ */
+final class Bytes {
+  private final byte[] array;
+  private final ByteBuffer buffer;
+  private final int length;
+
+  Bytes(byte[] array) {
+    this.array = array;
+    this.buffer = null;
+    this.length = array.length;
+  }
+
+  /**
+   * @param buffer 只读buffer，范围是[0, limit)
+   */
+  Bytes(ByteBuffer buffer) {
+    this.array = null;
+    this.buffer = buffer;
+    this.length = buffer.limit();
+  }
+
+  byte get(int i) {
+    return array != null ? array[i] : buffer.get(i);
+  }
+
+  int length() {
+    return length;
+  }
+
+  /**
+   * 把指定位置的UTF8字节解码成字符串
+   */
+  String decode(int pos, int len) {
+    if (array != null) {
+      return new String(array, pos, len, Config.UTF8);
+    }
+    byte[] tmp = new byte[len];
+    for (int i = 0; i < len; i++) {
+      tmp[i] = buffer.get(pos + i);
+    }
+    return new String(tmp, Config.UTF8);
+  }
+}
@@ -1,12 +1,21 @@
 package com.github.autoconf.base;
 
 import com.github.autoconf.api.IChangeListener;
-import com.github.autoconf.api.IChangeable;
 import com.github.autoconf.api.IChangeableConfig;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigCursor;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
 import com.github.autoconf.helper.ZookeeperUtil;
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 配置基类
@@ -14,7 +23,20 @@ import java.util.Arrays;
  */
 public class ChangeableConfig extends Config implements IChangeableConfig {
   private final String name;
-  private final IChangeable eventBus;
+  private final EventBus eventBus;
+  /**
+   * isChanged时为新内容生成的快照，紧接着的copyOf可以直接使用，不必重新计算hash
+   */
+  private volatile Snapshot prepared;
+  /**
+   * prepared由哪个映射buffer生成，映射快照只保存了slice，不能直接比较
+   */
+  private volatile ByteBuffer preparedFrom;
+  /**
+   * 上次通知listener时的快照，用于计算这次更新的差异
+   */
+  private Snapshot notified = Snapshot.EMPTY;
+  private final Object notifyLock = new Object();
 
   public ChangeableConfig(String name) {
     this.name = name;
@@ -26,6 +48,19 @@ public class ChangeableConfig extends Config implements IChangeableConfig {
     return name;
   }
 
+  public Dispatcher getDispatcher() {
+    return eventBus.getDispatcher();
+  }
+
+  /**
+   * 设置异步通知listener，为null表示在发现变化的线程中依次通知
+   *
+   * @param dispatcher 异步通知
+   */
+  public void setDispatcher(Dispatcher dispatcher) {
+    eventBus.setDispatcher(dispatcher);
+  }
+
   public void addListener(IChangeListener listener) {
     eventBus.addListener(listener);
   }
@@ -34,27 +69,190 @@ public class ChangeableConfig extends Config implements IChangeableConfig {
     eventBus.addListener(listener, loadAfterRegister);
   }
 
+  public void addListener(Set<String> keys, IChangeListener listener) {
+    eventBus.addListener(keys, listener);
+  }
+
+  public void addListener(Set<String> keys, IChangeListener listener, boolean loadAfterRegister) {
+    eventBus.addListener(keys, listener, loadAfterRegister);
+  }
+
+  public void addPrefixListener(String prefix, IChangeListener listener, boolean loadAfterRegister) {
+    eventBus.addPrefixListener(prefix, listener, loadAfterRegister);
+  }
+
   public void removeListener(IChangeListener listener) {
     eventBus.removeListener(listener);
   }
 
+  public void addDiffListener(IDiffListener listener, boolean loadAfterRegister) {
+    eventBus.addDiffListener(listener, loadAfterRegister);
+  }
+
+  public void removeDiffListener(IDiffListener listener) {
+    eventBus.removeDiffListener(listener);
+  }
+
+  public boolean hasListeners() {
+    return eventBus.hasListeners();
+  }
+
+  /**
+   * 通知所有listener，和上次通知时的快照对比计算差异，每次更新只计算1次
+   */
   public void notifyListeners() {
-    eventBus.notifyListeners();
+    final Snapshot before;
+    final Snapshot after;
+    synchronized (notifyLock) {
+      before = notified;
+      after = snapshot();
+      notified = after;
+    }
+    eventBus.notifyListeners(Suppliers.memoize(new Supplier<IConfigDiff>() {
+      @Override
+      public IConfigDiff get() {
+        return ConfigDiff.between(kv(before), kv(after));
+      }
+    }));
+  }
+
+  /**
+   * 通知所有listener，使用调用方已经算好的差异，不再遍历前后两个快照。
+   * 差异的起止版本和上次通知、当前快照对不上时(中间有其他更新)，退回按快照对比
+   *
+   * @param diff 调用方计算的本次更新差异
+   */
+  public void notifyListeners(final IConfigDiff diff) {
+    final Snapshot before;
+    final Snapshot after;
+    synchronized (notifyLock) {
+      before = notified;
+      after = snapshot();
+      notified = after;
+    }
+    if (before.getVersion() == diff.getOldVersion() && after.getVersion() == diff.getNewVersion()) {
+      eventBus.notifyListeners(Suppliers.ofInstance(diff));
+      return;
+    }
+    eventBus.notifyListeners(Suppliers.memoize(new Supplier<IConfigDiff>() {
+      @Override
+      public IConfigDiff get() {
+        return ConfigDiff.between(kv(before), kv(after));
+      }
+    }));
   }
 
 
+  /**
+   * 还没有listener的时候安装的快照不会有人通知，直接作为下次计算差异的基准，
+   * 否则启动时加载的内容在第1次真正变化时会全部被当作新增
+   */
+  @Override
+  protected void install(Snapshot s) {
+    synchronized (notifyLock) {
+      super.install(s);
+      if (!eventBus.hasListeners()) {
+        //格式错误的内容不会被安装，所以使用实际生效的快照
+        notified = snapshot();
+      }
+    }
+  }
+
+  @Override
+  public void copyOf(byte[] content) {
+    Snapshot p = prepared;
+    prepared = null;
+    preparedFrom = null;
+    //映射快照的getContent会复制到堆内，这里先排除
+    if (p != null && !p.isMapped() && p.getContent() == content) {
+      install(p);
+    } else {
+      super.copyOf(content);
+    }
+  }
+
+  @Override
+  public IConfig subset(String prefix) {
+    return new SubsetConfig(this, name, prefix);
+  }
+
+  @Override
+  public IConfigCursor cursor() {
+    ConfigCursor cursor = new ConfigCursor(this);
+    eventBus.addListener(cursor, false);
+    return cursor;
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder) {
+    return derived().get(this, id, builder, false);
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder, boolean background) {
+    return derived().get(this, id, builder, background);
+  }
+
+  /**
+   * 所有派生对象的构建耗时和命中率
+   *
+   * @return id到统计信息的只读map
+   */
+  public Map<String, Derived<?>> getDerived() {
+    return derived().asMap();
+  }
+
+  @Override
+  public void copyOf(ByteBuffer buffer) {
+    Snapshot p = prepared;
+    ByteBuffer from = preparedFrom;
+    prepared = null;
+    preparedFrom = null;
+    if (p != null && from == buffer) {
+      install(p);
+    } else {
+      super.copyOf(buffer);
+    }
+  }
+
+  /**
+   * 判断映射的新内容和以前相比是否发生了变化，hash直接在映射上计算，不读入堆内
+   * 不和isChanged(byte[])重载，避免isChanged(null)产生歧义
+   *
+   * @param now 新内容的文件映射
+   * @return 对比内容长度和64位hash，不一样就返回true
+   */
+  public boolean isBufferChanged(ByteBuffer now) {
+    if (now == null) {
+      return true;
+    }
+    Snapshot next = Snapshot.of(now);
+    prepared = next;
+    preparedFrom = now;
+    LoggerFactory.getLogger(getClass()).debug("change detecting, mapped length={}", next.length());
+    return !next.sameContent(snapshot());
+  }
+
   /**
    * 判断新接收到的数据和以前相比是否发生了变化
    *
    * @param now 新数据
-   * @return 逐字节对比，不一样就返回true
+   * @return 对比内容长度和64位hash，不一样就返回true
    */
   public boolean isChanged(byte[] now) {
     if (now == null) {
       return true;
     }
-    byte[] old = getContent();
-    LoggerFactory.getLogger(getClass()).debug("change detecting\nbefore:\n{}\n\nafter:\n{}\n", ZookeeperUtil.newString(old), ZookeeperUtil.newString(now));
-    return !Arrays.equals(now, old);
+    Snapshot old = snapshot();
+    Snapshot next = Snapshot.of(now);
+    prepared = next;
+    preparedFrom = null;
+    Logger log = LoggerFactory.getLogger(getClass());
+    if (log.isDebugEnabled()) {
+      //映射文件的快照不复制到堆内
+      Object before = old.isMapped() ? "mapped, length=" + old.length() : ZookeeperUtil.newString(old.getContent());
+      log.debug("change detecting\nbefore:\n{}\n\nafter:\n{}\n", before, ZookeeperUtil.newString(now));
+    }
+    return !next.sameContent(old);
   }
 }
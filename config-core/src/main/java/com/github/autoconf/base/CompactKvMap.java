@@ -0,0 +1,368 @@
+package com.github.autoconf.base;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 超大kv配置的紧凑存储，key和value只记录在原始UTF8字节流中的位置，不预先生成String。
+ * <pre>
+ * 1. 每个kv用4个int记录key和value的起始位置及长度，另外记录key的hash
+ * 2. key的hash按照String.hashCode的规则边解码边计算，查找时直接用key.hashCode()
+ * 3. 使用开放地址的hash表做索引，表里只存kv的序号
+ * 4. 只有调用方真正取值的时候才解码生成String，每次都会生成新的对象
+ * 5. 迭代顺序和配置里的顺序一致，同名key保留第1次出现的位置，value取最后1次的
+ * 6. 字节流可以是堆内数组，也可以是文件映射的buffer，后者kv内容完全不占用堆内存
+ * 7. 字节流必须是合法的UTF8，否则解码规则和new String不一致，这时返回null由调用方换成普通map
+ * </pre>
+ */
+final class CompactKvMap extends AbstractMap<String, String> {
+  private static final int KEY_START = 0;
+  private static final int KEY_LEN = 1;
+  private static final int VALUE_START = 2;
+  private static final int VALUE_LEN = 3;
+  private static final int STRIDE = 4;
+  private final Bytes b;
+  private final int[] slots;
+  private final int[] hashes;
+  private final int[] table;
+  private final int size;
+  private Set<Entry<String, String>> entries;
+
+  private CompactKvMap(Bytes b, int[] slots, int[] hashes, int size) {
+    this.b = b;
+    this.slots = slots;
+    this.hashes = hashes;
+    this.size = size;
+    this.table = new int[tableSize(size)];
+    for (int i = 0; i < size; i++) {
+      insert(i);
+    }
+  }
+
+  /**
+   * 解析字节流并生成紧凑存储
+   *
+   * @param bytes UTF8字节流
+   * @return 包含非法UTF8编码的时候返回null
+   */
+  static Map<String, String> build(byte[] bytes) {
+    return build(new Bytes(bytes));
+  }
+
+  /**
+   * 解析字节流并生成紧凑存储
+   *
+   * @param bytes UTF8字节流
+   * @return 包含非法UTF8编码的时候返回null
+   */
+  static Map<String, String> build(final Bytes bytes) {
+    int lines = 1;
+    for (int i = 0, len = bytes.length(); i < len; i++) {
+      if (bytes.get(i) == '\n') {
+        lines++;
+      }
+    }
+    final int[] slots = new int[lines * STRIDE];
+    final int[] hashes = new int[lines];
+    final int[] count = {0};
+    final boolean[] malformed = {false};
+    KvParser.scan(bytes, new KvParser.Sink() {
+      @Override
+      public void put(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (malformed[0]) {
+          return;
+        }
+        long h = hash(bytes, keyStart, keyEnd);
+        if (h < 0 || !valid(bytes, valueStart, valueEnd)) {
+          malformed[0] = true;
+          return;
+        }
+        int n = count[0]++;
+        int p = n * STRIDE;
+        slots[p + KEY_START] = keyStart;
+        slots[p + KEY_LEN] = keyEnd - keyStart;
+        slots[p + VALUE_START] = valueStart;
+        slots[p + VALUE_LEN] = valueEnd - valueStart;
+        hashes[n] = (int) h;
+      }
+    });
+    if (malformed[0]) {
+      return null;
+    }
+    int n = dedupe(bytes, slots, hashes, count[0]);
+    return new CompactKvMap(bytes, Arrays.copyOf(slots, n * STRIDE), Arrays.copyOf(hashes, n), n);
+  }
+
+  /**
+   * 去掉重复的key，后出现的value覆盖到先出现的位置上
+   *
+   * @return 去重以后的个数
+   */
+  private static int dedupe(Bytes b, int[] slots, int[] hashes, int n) {
+    int mask = tableSize(n) - 1;
+    int[] table = new int[mask + 1];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      int p = i * STRIDE;
+      int idx = spread(hashes[i]) & mask;
+      int found = -1;
+      for (int t = table[idx]; t != 0; t = table[idx]) {
+        int q = (t - 1) * STRIDE;
+        if (hashes[t - 1] == hashes[i] && sameBytes(b, slots[q + KEY_START], slots[q + KEY_LEN], slots[p + KEY_START], slots[p + KEY_LEN])) {
+          found = q;
+          break;
+        }
+        idx = (idx + 1) & mask;
+      }
+      if (found >= 0) {
+        slots[found + VALUE_START] = slots[p + VALUE_START];
+        slots[found + VALUE_LEN] = slots[p + VALUE_LEN];
+        continue;
+      }
+      int dst = size++;
+      if (dst != i) {
+        System.arraycopy(slots, p, slots, dst * STRIDE, STRIDE);
+        hashes[dst] = hashes[i];
+      }
+      table[idx] = dst + 1;
+    }
+    return size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && find((String) key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int i = find((String) key);
+    return i < 0 ? null : value(i);
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    Set<Entry<String, String>> s = entries;
+    if (s == null) {
+      s = new AbstractSet<Entry<String, String>>() {
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+          return new Iterator<Entry<String, String>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < size;
+            }
+
+            @Override
+            public Entry<String, String> next() {
+              if (next >= size) {
+                throw new NoSuchElementException();
+              }
+              int i = next++;
+              return new SimpleImmutableEntry<>(key(i), value(i));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+      entries = s;
+    }
+    return s;
+  }
+
+  private String key(int i) {
+    int p = i * STRIDE;
+    return b.decode(slots[p + KEY_START], slots[p + KEY_LEN]);
+  }
+
+  private String value(int i) {
+    int p = i * STRIDE;
+    return b.decode(slots[p + VALUE_START], slots[p + VALUE_LEN]);
+  }
+
+  private int find(String key) {
+    int h = key.hashCode();
+    int mask = table.length - 1;
+    int idx = spread(h) & mask;
+    for (int t = table[idx]; t != 0; t = table[idx]) {
+      int i = t - 1;
+      if (hashes[i] == h && sameKey(i, key)) {
+        return i;
+      }
+      idx = (idx + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void insert(int i) {
+    int mask = table.length - 1;
+    int idx = spread(hashes[i]) & mask;
+    while (table[idx] != 0) {
+      idx = (idx + 1) & mask;
+    }
+    table[idx] = i + 1;
+  }
+
+  /**
+   * 边解码边和key逐个char比较，不生成String
+   */
+  private boolean sameKey(int i, String key) {
+    int p = i * STRIDE;
+    int pos = slots[p + KEY_START];
+    int end = pos + slots[p + KEY_LEN];
+    int len = key.length();
+    int j = 0;
+    while (pos < end) {
+      int c = b.get(pos) & 0xFF;
+      int cp;
+      if (c < 0x80) {
+        cp = c;
+        pos += 1;
+      } else if (c < 0xE0) {
+        cp = ((c & 0x1F) << 6) | (b.get(pos + 1) & 0x3F);
+        pos += 2;
+      } else if (c < 0xF0) {
+        cp = ((c & 0x0F) << 12) | ((b.get(pos + 1) & 0x3F) << 6) | (b.get(pos + 2) & 0x3F);
+        pos += 3;
+      } else {
+        cp = ((c & 0x07) << 18) | ((b.get(pos + 1) & 0x3F) << 12) | ((b.get(pos + 2) & 0x3F) << 6) | (b.get(pos + 3) & 0x3F);
+        pos += 4;
+      }
+      if (cp < 0x10000) {
+        if (j >= len || key.charAt(j) != cp) {
+          return false;
+        }
+        j++;
+      } else {
+        if (j + 1 >= len || key.charAt(j) != Character.highSurrogate(cp) || key.charAt(j + 1) != Character.lowSurrogate(cp)) {
+          return false;
+        }
+        j += 2;
+      }
+    }
+    return j == len;
+  }
+
+  /**
+   * 按照String.hashCode的规则计算解码以后的hash，同时校验UTF8编码
+   *
+   * @return 非法编码返回-1，否则返回hash的无符号值
+   */
+  private static long hash(Bytes b, int pos, int end) {
+    int h = 0;
+    while (pos < end) {
+      int n = charLength(b, pos, end);
+      if (n == 0) {
+        return -1;
+      }
+      int c = b.get(pos) & 0xFF;
+      if (n == 1) {
+        h = 31 * h + c;
+      } else if (n == 2) {
+        h = 31 * h + (((c & 0x1F) << 6) | (b.get(pos + 1) & 0x3F));
+      } else if (n == 3) {
+        h = 31 * h + (((c & 0x0F) << 12) | ((b.get(pos + 1) & 0x3F) << 6) | (b.get(pos + 2) & 0x3F));
+      } else {
+        int cp = ((c & 0x07) << 18) | ((b.get(pos + 1) & 0x3F) << 12) | ((b.get(pos + 2) & 0x3F) << 6) | (b.get(pos + 3) & 0x3F);
+        h = 31 * h + Character.highSurrogate(cp);
+        h = 31 * h + Character.lowSurrogate(cp);
+      }
+      pos += n;
+    }
+    return h & 0xFFFFFFFFL;
+  }
+
+  private static boolean valid(Bytes b, int pos, int end) {
+    while (pos < end) {
+      int n = charLength(b, pos, end);
+      if (n == 0) {
+        return false;
+      }
+      pos += n;
+    }
+    return true;
+  }
+
+  /**
+   * 严格按照UTF8规范判断pos位置字符的编码长度，排除超长编码和代理区字符
+   *
+   * @return 非法编码返回0
+   */
+  private static int charLength(Bytes b, int pos, int end) {
+    int c = b.get(pos) & 0xFF;
+    if (c < 0x80) {
+      return 1;
+    }
+    if (c < 0xC2 || c > 0xF4) {
+      return 0;
+    }
+    int n = c < 0xE0 ? 2 : (c < 0xF0 ? 3 : 4);
+    if (pos + n > end) {
+      return 0;
+    }
+    int c1 = b.get(pos + 1) & 0xFF;
+    if ((c1 & 0xC0) != 0x80) {
+      return 0;
+    }
+    if ((c == 0xE0 && c1 < 0xA0) || (c == 0xED && c1 >= 0xA0) || (c == 0xF0 && c1 < 0x90) || (c == 0xF4 && c1 >= 0x90)) {
+      return 0;
+    }
+    for (int i = 2; i < n; i++) {
+      if ((b.get(pos + i) & 0xC0) != 0x80) {
+        return 0;
+      }
+    }
+    return n;
+  }
+
+  private static boolean sameBytes(Bytes b, int s1, int len1, int s2, int len2) {
+    if (len1 != len2) {
+      return false;
+    }
+    for (int i = 0; i < len1; i++) {
+      if (b.get(s1 + i) != b.get(s2 + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * hash表大小是2的幂，负载因子不超过0.5
+   */
+  private static int tableSize(int n) {
+    int size = 2;
+    while (size < n * 2) {
+      size <<= 1;
+    }
+    return size;
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,98 +1,178 @@
 package com.github.autoconf.base;
 
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IFormat;
+import com.google.common.base.Function;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.primitives.Longs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 根据缓存获取内容，支持纯文本或者KV格式的解析。并且使用懒加载模式，只在需要的时候做解析。
  * Created by lirui on 2015/9/23.
  */
 public class Config extends Properties {
+  private static final Logger LOG = LoggerFactory.getLogger(Config.class);
   public static final Charset UTF8 = Charset.forName("UTF-8");
   public static final Charset GBK = Charset.forName("GBK");
-  private boolean parsed = false;
-  private byte[] content;
-
-  public synchronized byte[] getContent() {
-    if (content == null) {
-      Map<String, String> m = getAll();
-      if (m.isEmpty()) {
-        content = new byte[0];
-      } else {
-        StringBuilder sbd = new StringBuilder();
-        for (Map.Entry<String, String> i : m.entrySet()) {
-          sbd.append(i.getKey()).append('=').append(i.getValue()).append('\n');
+  /**
+   * Bloom过滤器的误判率
+   */
+  private static final double LINE_FILTER_FPP = 0.01;
+  private static final Function<Snapshot, Set<String>> LINE_SET = new Function<Snapshot, Set<String>>() {
+    @Override
+    public Set<String> apply(Snapshot input) {
+      return ImmutableSet.copyOf(input.getLines(UTF8, true));
+    }
+  };
+  private static final Function<Snapshot, BloomFilter<CharSequence>> LINE_FILTER = new Function<Snapshot, BloomFilter<CharSequence>>() {
+    @Override
+    public BloomFilter<CharSequence> apply(Snapshot input) {
+      List<String> lines = input.getLines(UTF8, true);
+      BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(UTF8), Math.max(lines.size(), 1), LINE_FILTER_FPP);
+      for (String i : lines) {
+        filter.put(i);
+      }
+      return filter;
+    }
+  };
+  /**
+   * 把数字行解析成排好序并且去重的long数组，不是数字的行直接忽略
+   */
+  private static final Function<Snapshot, long[]> LONG_SET = new Function<Snapshot, long[]>() {
+    @Override
+    public long[] apply(Snapshot input) {
+      List<String> lines = input.getLines(UTF8, true);
+      long[] items = new long[lines.size()];
+      int n = 0;
+      for (String i : lines) {
+        Long val = Longs.tryParse(i);
+        if (val != null) {
+          items[n++] = val;
         }
-        content = sbd.toString().getBytes(UTF8);
       }
+      Arrays.sort(items, 0, n);
+      int size = 0;
+      for (int i = 0; i < n; i++) {
+        if (size == 0 || items[size - 1] != items[i]) {
+          items[size++] = items[i];
+        }
+      }
+      return size == items.length ? items : Arrays.copyOf(items, size);
     }
-    return content;
+  };
+
+  /**
+   * 结构化格式，为null表示按kv格式解析
+   */
+  private volatile Structured structured;
+  private volatile DerivedCache derived;
+
+  public IFormat getFormat() {
+    Structured s = structured;
+    return s == null ? null : s.format;
   }
 
-  public void copyOf(String s) {
-    this.content = s.getBytes(UTF8);
-    parsed = false;
+  /**
+   * 设置结构化格式，每个版本只解析1次，之后按key取值使用展开以后的kv，比如 getInt("pool.max")
+   *
+   * @param format 为null表示按kv格式解析
+   */
+  public void setFormat(IFormat format) {
+    structured = format == null ? null : Structured.of(format);
   }
 
-  public void copyOf(byte[] content) {
-    this.content = content;
-    parsed = false;
+  /**
+   * 结构化格式解析出来的树，kv格式返回所有kv
+   *
+   * @return 根节点，格式错误的时候返回空map
+   */
+  public Object getTree() {
+    Structured s = structured;
+    Snapshot snap = snapshot();
+    return s == null ? snap.getAll() : s.treeOf(snap);
   }
 
+  /**
+   * 结构化格式的配置不接受解析失败的内容，继续使用上一个正确的版本，避免一次写错把所有kv都清空
+   */
   @Override
-  public void copyOf(Map<String, String> m) {
-    super.copyOf(m);
-    parsed = true;
-    this.content = null;
-  }
-
-  private synchronized void parse() {
-    if (!parsed) {
-      Map<String, String> m = Maps.newLinkedHashMap();
-      final byte[] bytes = content;
-      if (bytes != null) {
-        String txt = new String(bytes, UTF8);
-        for (String i : lines(txt, true)) {
-          int pos = i.indexOf('=');
-          if (pos != -1 && (pos + 1) < i.length()) {
-            String k = i.substring(0, pos).trim();
-            String v = i.substring(pos + 1).trim();
-            m.put(k, v);
-          }
-        }
-        super.copyOf(m);
-      }
-      parsed = true;
+  protected void install(Snapshot s) {
+    Structured st = structured;
+    if (st != null && s.view(st.tree, st.tree) == Structured.INVALID) {
+      LOG.error("keep version:{}, reject invalid {} content, version:{}", snapshot().getVersion(), st.format.getName(), s.getVersion());
+      return;
     }
+    super.install(s);
   }
 
   @Override
-  public String get(String key) {
-    if (!parsed) {
-      parse();
-    }
-    return super.get(key);
+  protected Snapshot kv() {
+    return kv(snapshot());
   }
 
-  @Override
-  public Map<String, String> getAll() {
-    if (!parsed) {
-      parse();
-    }
-    return super.getAll();
+  /**
+   * 快照对应的kv视图，结构化格式的配置返回展开以后的kv，版本号不变
+   *
+   * @param s 原始快照
+   * @return kv视图
+   */
+  Snapshot kv(Snapshot s) {
+    Structured st = structured;
+    return st == null ? s : s.view(st.flat, st.flat);
+  }
+
+  public long getVersion() {
+    return snapshot().getVersion();
+  }
+
+  public long getContentHash() {
+    return snapshot().getContentHash();
+  }
+
+  public byte[] getContent() {
+    return snapshot().getContent();
+  }
+
+  public void copyOf(String s) {
+    install(Snapshot.of(s.getBytes(UTF8)));
+  }
+
+  public void copyOf(byte[] content) {
+    install(Snapshot.of(content));
+  }
+
+  /**
+   * 使用只读buffer(一般是文件映射)作为配置内容，kv内容直接在buffer上解析，不复制到堆内
+   *
+   * @param buffer 配置内容，使用期间不能再修改
+   */
+  public void copyOf(ByteBuffer buffer) {
+    install(Snapshot.of(buffer));
   }
 
   public String getString() {
-    return new String(getContent(), UTF8);
+    return snapshot().getString(UTF8);
   }
 
   public String getString(Charset charset) {
-    return new String(getContent(), charset);
+    return snapshot().getString(charset);
   }
 
   public List<String> getLines() {
@@ -100,14 +180,53 @@ public class Config extends Properties {
   }
 
   public List<String> getLines(Charset charset) {
-    return lines(new String(getContent(), charset), true);
+    return getLines(charset, true);
   }
 
   public List<String> getLines(Charset charset, boolean removeComment) {
-    return lines(new String(getContent(), charset), removeComment);
+    return snapshot().getLines(charset, removeComment);
+  }
+
+  public boolean containsLine(String line) {
+    return line != null && snapshot().view(LINE_SET, LINE_SET).contains(line);
+  }
+
+  public boolean mightContainLine(String line) {
+    return line != null && snapshot().view(LINE_FILTER, LINE_FILTER).mightContain(line);
+  }
+
+  public boolean containsLong(long value) {
+    return Arrays.binarySearch(snapshot().view(LONG_SET, LONG_SET), value) >= 0;
+  }
+
+  /**
+   * 获取指定前缀的子集视图，查找时自动加上前缀，原配置更新以后子集自动跟着变化
+   *
+   * @param prefix key的前缀，比如 "db."
+   * @return 只读的子集视图
+   */
+  public IConfig subset(String prefix) {
+    return new SubsetConfig(this, null, prefix);
+  }
+
+  /**
+   * 派生对象的缓存，第1次使用时创建
+   */
+  DerivedCache derived() {
+    DerivedCache c = derived;
+    if (c == null) {
+      synchronized (this) {
+        c = derived;
+        if (c == null) {
+          c = new DerivedCache();
+          derived = c;
+        }
+      }
+    }
+    return c;
   }
 
-  private List<String> lines(String s, boolean removeComment) {
+  static List<String> lines(String s, boolean removeComment) {
     List<String> raw = Splitter.on('\n').trimResults().omitEmptyStrings().splitToList(s);
     if (!removeComment)
       return raw;
@@ -120,4 +239,60 @@ public class Config extends Properties {
     }
     return clean;
   }
+
+  /**
+   * 每种格式共用1组视图构建方法，同时作为视图在快照中的key
+   */
+  private static final class Structured {
+    private static final ConcurrentMap<IFormat, Structured> ALL = Maps.newConcurrentMap();
+    /**
+     * 解析失败的标记
+     */
+    private static final Object INVALID = new Object();
+    private final IFormat format;
+    private final Function<Snapshot, Object> tree;
+    private final Function<Snapshot, Snapshot> flat;
+
+    private Structured(final IFormat format) {
+      this.format = format;
+      this.tree = new Function<Snapshot, Object>() {
+        @Override
+        public Object apply(Snapshot input) {
+          try (Reader reader = new InputStreamReader(input.openStream(), UTF8)) {
+            Object root = format.parse(reader);
+            return root == null ? ImmutableMap.of() : root;
+          } catch (Exception e) {
+            LOG.error("cannot parse {}, version:{}", format.getName(), input.getVersion(), e);
+            return INVALID;
+          }
+        }
+      };
+      this.flat = new Function<Snapshot, Snapshot>() {
+        @Override
+        public Snapshot apply(Snapshot input) {
+          return Snapshot.wrap(Formats.flatten(treeOf(input)), input.getVersion());
+        }
+      };
+    }
+
+    /**
+     * 设置格式之前已经加载的内容可能解析失败，这时当作空map
+     */
+    Object treeOf(Snapshot s) {
+      Object root = s.view(tree, tree);
+      return root == INVALID ? ImmutableMap.of() : root;
+    }
+
+    static Structured of(IFormat format) {
+      Structured s = ALL.get(format);
+      if (s == null) {
+        Structured created = new Structured(format);
+        s = ALL.putIfAbsent(format, created);
+        if (s == null) {
+          s = created;
+        }
+      }
+      return s;
+    }
+  }
 }
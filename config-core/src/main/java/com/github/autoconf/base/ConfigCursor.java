@@ -0,0 +1,123 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigCursor;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于EventBus通知实现的游标，通知只用来唤醒等待方，取值时总是直接读取配置当前的快照，
+ * 所以不需要排队，处理慢的时候中间版本自然被跳过
+ */
+final class ConfigCursor implements IConfigCursor, IChangeListener {
+  private final ChangeableConfig config;
+  private long consumed;
+  private SettableFuture<IConfig> pending;
+  private boolean closed;
+
+  ConfigCursor(ChangeableConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public synchronized long getVersion() {
+    return consumed;
+  }
+
+  @Override
+  public synchronized boolean hasChanged() {
+    return !closed && config.snapshot().getVersion() != consumed;
+  }
+
+  @Override
+  public synchronized IConfig poll() {
+    if (closed) {
+      return null;
+    }
+    Snapshot s = config.snapshot();
+    if (s.getVersion() == consumed) {
+      return null;
+    }
+    consumed = s.getVersion();
+    return new PinnedConfig(config, config.getName(), s);
+  }
+
+  @Override
+  public synchronized IConfig poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    IConfig c = poll();
+    while (c == null && !closed) {
+      long left = deadline - System.nanoTime();
+      if (left <= 0) {
+        return null;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, left);
+      c = poll();
+    }
+    return c;
+  }
+
+  @Override
+  public ListenableFuture<IConfig> next() {
+    SettableFuture<IConfig> f;
+    synchronized (this) {
+      if (pending != null) {
+        return pending;
+      }
+      IConfig c = poll();
+      if (c != null) {
+        return Futures.immediateFuture(c);
+      }
+      if (closed) {
+        return Futures.immediateCancelledFuture();
+      }
+      f = SettableFuture.create();
+      pending = f;
+    }
+    return f;
+  }
+
+  @Override
+  public void changed(IConfig ignored) {
+    SettableFuture<IConfig> f = null;
+    IConfig c = null;
+    synchronized (this) {
+      notifyAll();
+      if (pending != null) {
+        c = poll();
+        if (c != null) {
+          f = pending;
+          pending = null;
+        }
+      }
+    }
+    //在锁外完成future，future的回调可能再次调用next
+    if (f != null) {
+      f.set(c);
+    }
+  }
+
+  @Override
+  public void close() {
+    SettableFuture<IConfig> f;
+    synchronized (this) {
+      closed = true;
+      f = pending;
+      pending = null;
+      notifyAll();
+    }
+    config.removeListener(this);
+    if (f != null) {
+      f.cancel(false);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConfigCursor{" + "name=" + config.getName() + '}';
+  }
+}
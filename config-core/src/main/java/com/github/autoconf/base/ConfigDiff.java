@@ -0,0 +1,181 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IConfigDiff;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 配置更新前后的差异，只保存发生变化的key以及对应的新旧value
+ */
+public final class ConfigDiff implements IConfigDiff {
+  private final long oldVersion;
+  private final long newVersion;
+  private final Set<String> added;
+  private final Set<String> removed;
+  private final Set<String> changed;
+  private final Map<String, String> oldValues;
+  private final Map<String, String> newValues;
+
+  private ConfigDiff(long oldVersion, long newVersion, Set<String> added, Set<String> removed, Set<String> changed, Map<String, String> oldValues, Map<String, String> newValues) {
+    this.oldVersion = oldVersion;
+    this.newVersion = newVersion;
+    this.added = added;
+    this.removed = removed;
+    this.changed = changed;
+    this.oldValues = oldValues;
+    this.newValues = newValues;
+  }
+
+  /**
+   * 对比两个快照的kv内容
+   *
+   * @param before 更新前
+   * @param after  更新后
+   * @return 差异
+   */
+  public static ConfigDiff between(Snapshot before, Snapshot after) {
+    return between(before.getAll(), after.getAll(), before.getVersion(), after.getVersion());
+  }
+
+  /**
+   * 对比两份kv内容
+   *
+   * @param before     更新前
+   * @param after      更新后
+   * @param oldVersion 更新前的版本号
+   * @param newVersion 更新后的版本号
+   * @return 差异
+   */
+  public static ConfigDiff between(Map<String, String> before, Map<String, String> after, long oldVersion, long newVersion) {
+    ImmutableSet.Builder<String> added = ImmutableSet.builder();
+    ImmutableSet.Builder<String> removed = ImmutableSet.builder();
+    ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+    ImmutableMap.Builder<String, String> oldValues = ImmutableMap.builder();
+    ImmutableMap.Builder<String, String> newValues = ImmutableMap.builder();
+    if (before != after) {
+      for (Map.Entry<String, String> i : after.entrySet()) {
+        String key = i.getKey();
+        String now = i.getValue();
+        String old = before.get(key);
+        if (old == null) {
+          added.add(key);
+          newValues.put(key, now);
+        } else if (!old.equals(now)) {
+          changed.add(key);
+          oldValues.put(key, old);
+          newValues.put(key, now);
+        }
+      }
+      for (Map.Entry<String, String> i : before.entrySet()) {
+        if (!after.containsKey(i.getKey())) {
+          removed.add(i.getKey());
+          oldValues.put(i.getKey(), i.getValue());
+        }
+      }
+    }
+    return new ConfigDiff(oldVersion, newVersion, added.build(), removed.build(), changed.build(), oldValues.build(), newValues.build());
+  }
+
+  /**
+   * 根据已知变化的key生成差异，只按key查找更新前的内容，不遍历完整的kv
+   *
+   * @param before     更新前的kv内容
+   * @param changes    变化的key和新value，value为null表示删除
+   * @param oldVersion 更新前的版本号
+   * @param newVersion 更新后的版本号
+   * @return 差异
+   */
+  public static ConfigDiff of(Map<String, String> before, Map<String, String> changes, long oldVersion, long newVersion) {
+    Map<String, String> old = Maps.newHashMap();
+    Map<String, String> now = Maps.newHashMap();
+    for (Map.Entry<String, String> i : changes.entrySet()) {
+      String value = before.get(i.getKey());
+      if (value != null) {
+        old.put(i.getKey(), value);
+      }
+      if (i.getValue() != null) {
+        now.put(i.getKey(), i.getValue());
+      }
+    }
+    return between(old, now, oldVersion, newVersion);
+  }
+
+  /**
+   * 合并连续的两次差异，相当于直接对比first之前和then之后的内容
+   *
+   * @param first 先发生的差异
+   * @param then  后发生的差异
+   * @return 合并后的差异
+   */
+  public static ConfigDiff merge(IConfigDiff first, IConfigDiff then) {
+    Map<String, String> before = Maps.newHashMap();
+    Map<String, String> after = Maps.newHashMap();
+    for (String key : Sets.union(first.getKeys(), then.getKeys())) {
+      String old = first.getKeys().contains(key) ? first.getOldValue(key) : then.getOldValue(key);
+      String now = then.getKeys().contains(key) ? then.getNewValue(key) : first.getNewValue(key);
+      if (old != null) {
+        before.put(key, old);
+      }
+      if (now != null) {
+        after.put(key, now);
+      }
+    }
+    return between(before, after, first.getOldVersion(), then.getNewVersion());
+  }
+
+  @Override
+  public long getOldVersion() {
+    return oldVersion;
+  }
+
+  @Override
+  public long getNewVersion() {
+    return newVersion;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+  }
+
+  @Override
+  public Set<String> getAdded() {
+    return added;
+  }
+
+  @Override
+  public Set<String> getRemoved() {
+    return removed;
+  }
+
+  @Override
+  public Set<String> getChanged() {
+    return changed;
+  }
+
+  @Override
+  public Set<String> getKeys() {
+    return Sets.union(Sets.union(added, changed), removed);
+  }
+
+  @Override
+  public String getOldValue(String key) {
+    return oldValues.get(key);
+  }
+
+  @Override
+  public String getNewValue(String key) {
+    return newValues.get(key);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("version", oldVersion + "->" + newVersion).add("added", added).add("removed", removed).add("changed", changed).toString();
+  }
+}
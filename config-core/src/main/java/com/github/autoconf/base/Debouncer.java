@@ -0,0 +1,111 @@
+package com.github.autoconf.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并短时间内连续发生的事件，只执行1次。
+ * <pre>
+ * 1. 每次触发都把执行时间推迟到window之后，窗口内没有新事件才真正执行
+ * 2. 从第1次触发开始最多等待maxDelay，持续不断的触发也不会无限推迟
+ * 3. 执行期间发生的触发会在执行结束后再开始新的一轮，不会丢失最后1次变更
+ * 4. 所有实例共用1个后台线程计时和执行，action应该尽量快
+ * </pre>
+ */
+public class Debouncer {
+  private static final Logger LOG = LoggerFactory.getLogger(Debouncer.class);
+  private final String name;
+  private final Runnable action;
+  private final long windowNanos;
+  private final long maxDelayNanos;
+  private final AtomicLong triggered = new AtomicLong();
+  private final AtomicLong executed = new AtomicLong();
+  private long firstAt;
+  private long lastAt;
+  private boolean pending;
+
+  /**
+   * @param name           名字，用于日志
+   * @param action         合并后执行的动作
+   * @param windowMillis   合并窗口
+   * @param maxDelayMillis 从第1次触发开始的最大等待时间，不能小于windowMillis
+   */
+  public Debouncer(String name, Runnable action, long windowMillis, long maxDelayMillis) {
+    Preconditions.checkArgument(windowMillis > 0, "windowMillis must be positive");
+    Preconditions.checkArgument(maxDelayMillis >= windowMillis, "maxDelayMillis must not be less than windowMillis");
+    this.name = name;
+    this.action = Preconditions.checkNotNull(action, "action");
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+  }
+
+  /**
+   * 触发1次事件
+   */
+  public void trigger() {
+    triggered.incrementAndGet();
+    long now = System.nanoTime();
+    synchronized (this) {
+      lastAt = now;
+      if (pending) {
+        return;
+      }
+      pending = true;
+      firstAt = now;
+    }
+    schedule(windowNanos);
+  }
+
+  /**
+   * 触发的总次数
+   */
+  public long getTriggered() {
+    return triggered.get();
+  }
+
+  /**
+   * 真正执行的次数
+   */
+  public long getExecuted() {
+    return executed.get();
+  }
+
+  private void schedule(long delayNanos) {
+    Scheduler.INSTANCE.schedule(new Runnable() {
+      @Override
+      public void run() {
+        fire();
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void fire() {
+    long now = System.nanoTime();
+    synchronized (this) {
+      long due = Math.min(lastAt + windowNanos, firstAt + maxDelayNanos);
+      if (now - due < 0) {
+        schedule(due - now);
+        return;
+      }
+      pending = false;
+    }
+    executed.incrementAndGet();
+    LOG.debug("{} fire, triggered:{}, executed:{}", name, triggered.get(), executed.get());
+    try {
+      action.run();
+    } catch (Exception e) {
+      LOG.error("{} cannot execute", name, e);
+    }
+  }
+
+  private static final class Scheduler {
+    private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ConfigDebouncer").setDaemon(true).build());
+  }
+}
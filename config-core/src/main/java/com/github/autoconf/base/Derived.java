@@ -0,0 +1,248 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IConfig;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于配置构建出来的对象(比如编译好的正则、解析好的规则树)，按配置版本缓存，同时记录构建耗时和命中率。
+ * <pre>
+ * 1. 配置版本没变直接返回缓存的对象，版本变化以后第1次使用时重新构建，同一时间只有1个线程在构建
+ * 2. 后台模式下已经有旧对象时不等待构建，先返回旧对象，由后台线程构建好以后替换
+ * 3. 构建失败记录错误日志并保留旧对象，同一个版本不再重试，配置版本变化以后才重新构建；
+ *    从来没有构建成功过则抛出异常，同一个版本再次使用时直接抛出同一个异常
+ * </pre>
+ */
+public final class Derived<T> {
+  private static final Logger LOG = LoggerFactory.getLogger(Derived.class);
+  private final String id;
+  private final AtomicBoolean building = new AtomicBoolean(false);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong stale = new AtomicLong();
+  private final AtomicLong builds = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong buildNanos = new AtomicLong();
+  private volatile long lastBuildNanos;
+  private volatile Built<T> built;
+  private volatile Failed failed;
+
+  Derived(String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * 当前缓存对象对应的配置版本，还没有构建过返回0
+   */
+  public long getVersion() {
+    Built<T> b = built;
+    return b == null ? 0 : b.version;
+  }
+
+  /**
+   * 直接使用缓存对象的次数
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * 返回旧对象的次数，包括后台模式和构建失败以后
+   */
+  public long getStale() {
+    return stale.get();
+  }
+
+  /**
+   * 构建的次数，包括失败的
+   */
+  public long getBuilds() {
+    return builds.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * 累计构建耗时
+   */
+  public long getBuildMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(buildNanos.get());
+  }
+
+  /**
+   * 最近1次构建耗时
+   */
+  public long getLastBuildMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastBuildNanos);
+  }
+
+  /**
+   * 不需要构建就直接返回的比例，包括后台模式下返回旧对象
+   */
+  public double getHitRate() {
+    long h = hits.get() + stale.get();
+    long total = h + builds.get();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  /**
+   * 版本相同时返回已经构建好的对象，不会触发构建
+   *
+   * @param version 配置版本
+   * @return 没有对应版本的对象返回null
+   */
+  T peek(long version) {
+    Built<T> b = built;
+    if (b != null && b.version == version) {
+      hits.incrementAndGet();
+      return b.value;
+    }
+    return null;
+  }
+
+  T get(IConfig config, Function<? super IConfig, ? extends T> builder, boolean background) {
+    long version = config.getVersion();
+    Built<T> b = built;
+    if (b != null && b.version == version) {
+      hits.incrementAndGet();
+      return b.value;
+    }
+    Failed f = failed;
+    if (f != null && f.version == version) {
+      return fallback(b, f);
+    }
+    if (background && b != null) {
+      stale.incrementAndGet();
+      rebuildLater(config, builder);
+      return b.value;
+    }
+    synchronized (this) {
+      b = built;
+      if (b != null && b.version == version) {
+        hits.incrementAndGet();
+        return b.value;
+      }
+      f = failed;
+      if (f != null && f.version == version) {
+        return fallback(b, f);
+      }
+      try {
+        return build(config, builder, version);
+      } catch (RuntimeException e) {
+        if (b == null) {
+          throw e;
+        }
+        LOG.error("cannot derive {} from {}, use version {}", id, config.getName(), b.version, e);
+        return b.value;
+      }
+    }
+  }
+
+  /**
+   * 当前版本已经构建失败过，不再重试
+   */
+  private T fallback(Built<T> b, Failed f) {
+    if (b == null) {
+      throw f.error;
+    }
+    stale.incrementAndGet();
+    return b.value;
+  }
+
+  /**
+   * 先取版本号再构建，构建期间配置又变化的话，下次使用时会再构建1次
+   */
+  private T build(IConfig config, Function<? super IConfig, ? extends T> builder, long version) {
+    builds.incrementAndGet();
+    long start = System.nanoTime();
+    T value;
+    try {
+      value = builder.apply(config);
+    } catch (RuntimeException e) {
+      failures.incrementAndGet();
+      failed = new Failed(version, e);
+      throw e;
+    } finally {
+      long cost = System.nanoTime() - start;
+      lastBuildNanos = cost;
+      buildNanos.addAndGet(cost);
+    }
+    built = new Built<T>(version, value);
+    failed = null;
+    LOG.info("{} derive {}, version:{}, cost:{}ms", config.getName(), id, version, TimeUnit.NANOSECONDS.toMillis(lastBuildNanos));
+    return value;
+  }
+
+  private void rebuildLater(final IConfig config, final Function<? super IConfig, ? extends T> builder) {
+    if (!building.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      Builder.INSTANCE.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            synchronized (Derived.this) {
+              long version = config.getVersion();
+              Built<T> b = built;
+              Failed f = failed;
+              if ((b == null || b.version != version) && (f == null || f.version != version)) {
+                build(config, builder, version);
+              }
+            }
+          } catch (Exception e) {
+            LOG.error("cannot derive {} from {}", id, config.getName(), e);
+          } finally {
+            building.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      building.set(false);
+      LOG.error("cannot derive {} from {}", id, config.getName(), e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Derived{id=" + id + ", version=" + getVersion() + ", builds=" + builds + ", hitRate=" + getHitRate() + ", buildMillis=" + getBuildMillis() + '}';
+  }
+
+  private static final class Built<T> {
+    private final long version;
+    private final T value;
+
+    Built(long version, T value) {
+      this.version = version;
+      this.value = value;
+    }
+  }
+
+  private static final class Failed {
+    private final long version;
+    private final RuntimeException error;
+
+    Failed(long version, RuntimeException error) {
+      this.version = version;
+      this.error = error;
+    }
+  }
+
+  private static final class Builder {
+    private static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("ConfigDeriver").setDaemon(true).build());
+  }
+}
@@ -0,0 +1,80 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IConfig;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 单个配置上所有按id缓存的派生对象，配置本身由工厂全局共享，所以同一个id在进程内只构建1份。
+ * 子集视图使用原配置上按前缀划分的缓存，固定快照的配置先查找原配置的缓存，版本相同直接使用
+ */
+final class DerivedCache {
+  private final ConcurrentMap<String, Derived<?>> m = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, DerivedCache> subsets = Maps.newConcurrentMap();
+  private final DerivedCache origin;
+
+  DerivedCache() {
+    this(null);
+  }
+
+  /**
+   * @param origin 先查找的缓存，为null表示只使用自己的缓存
+   */
+  DerivedCache(DerivedCache origin) {
+    this.origin = origin;
+  }
+
+  @SuppressWarnings("unchecked")
+  <T> T get(IConfig config, String id, Function<? super IConfig, ? extends T> builder, boolean background) {
+    Preconditions.checkNotNull(id, "id");
+    Preconditions.checkNotNull(builder, "builder");
+    if (origin != null) {
+      T v = origin.peek(id, config.getVersion());
+      if (v != null) {
+        return v;
+      }
+    }
+    Derived<?> d = m.get(id);
+    if (d == null) {
+      Derived<?> created = new Derived<T>(id);
+      d = m.putIfAbsent(id, created);
+      if (d == null) {
+        d = created;
+      }
+    }
+    return ((Derived<T>) d).get(config, builder, background);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T peek(String id, long version) {
+    Derived<?> d = m.get(id);
+    return d == null ? null : ((Derived<T>) d).peek(version);
+  }
+
+  /**
+   * 指定前缀的子集使用的缓存，同一个配置上前缀相同的子集共用
+   *
+   * @param prefix 子集的完整前缀
+   * @return 子集的缓存
+   */
+  DerivedCache subset(String prefix) {
+    DerivedCache c = subsets.get(prefix);
+    if (c == null) {
+      DerivedCache created = new DerivedCache(origin == null ? null : origin.subset(prefix));
+      c = subsets.putIfAbsent(prefix, created);
+      if (c == null) {
+        c = created;
+      }
+    }
+    return c;
+  }
+
+  Map<String, Derived<?>> asMap() {
+    return Collections.unmodifiableMap(m);
+  }
+}
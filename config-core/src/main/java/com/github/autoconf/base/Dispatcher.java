@@ -0,0 +1,268 @@
+package com.github.autoconf.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在指定线程池中异步通知listener，避免慢的listener阻塞zookeeper事件线程或者本地文件监控线程。
+ * <pre>
+ * 1. 每个listener有自己的串行队列，同一个listener总是按顺序收到通知，不会并发执行
+ * 2. 队列里最多只保留1个待执行的通知，listener还没来得及处理的旧版本会和新版本合并
+ * 3. listener执行超过slowMillis输出告警以及当时的线程栈，结束时再输出总耗时
+ * 4. listener执行超过timeoutMillis会被中断，需要listener自己响应中断；只在listener执行期间中断，结束时清理中断标志
+ * </pre>
+ */
+public class Dispatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(Dispatcher.class);
+  private final Executor executor;
+  private final long slowMillis;
+  private final long timeoutMillis;
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong slow = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+
+  /**
+   * 执行超过1秒告警，不做超时中断
+   *
+   * @param executor 执行listener的线程池
+   */
+  public Dispatcher(Executor executor) {
+    this(executor, 1000, 0);
+  }
+
+  /**
+   * @param executor      执行listener的线程池
+   * @param slowMillis    执行超过这个时间告警，0表示不告警
+   * @param timeoutMillis 执行超过这个时间中断，0表示不中断
+   */
+  public Dispatcher(Executor executor, long slowMillis, long timeoutMillis) {
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+    this.slowMillis = slowMillis;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * 被合并掉的通知次数
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * 执行过慢的次数
+   */
+  public long getSlow() {
+    return slow.get();
+  }
+
+  /**
+   * 执行超时被中断的次数
+   */
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  private void invoke(final String name, Task task) {
+    final Thread thread = Thread.currentThread();
+    final Execution execution = new Execution(thread);
+    ScheduledFuture<?> warn = null;
+    ScheduledFuture<?> timeout = null;
+    if (slowMillis > 0) {
+      warn = Watchdog.INSTANCE.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (execution.isDone()) {
+            return;
+          }
+          Throwable stack = new Throwable("stack of " + thread.getName());
+          stack.setStackTrace(thread.getStackTrace());
+          LOG.warn("{} still running after {}ms", name, slowMillis, stack);
+        }
+      }, slowMillis, TimeUnit.MILLISECONDS);
+    }
+    if (timeoutMillis > 0) {
+      timeout = Watchdog.INSTANCE.schedule(new Runnable() {
+        @Override
+        public void run() {
+          //持有执行状态的锁计数，执行线程的finish要等计数完成才能返回
+          synchronized (execution) {
+            if (execution.interrupt()) {
+              timeouts.incrementAndGet();
+              LOG.error("{} timeout after {}ms, interrupt {}", name, timeoutMillis, thread.getName());
+            }
+          }
+        }
+      }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    long start = System.nanoTime();
+    try {
+      task.run();
+    } catch (Exception e) {
+      LOG.error("cannot reload " + name, e);
+    } finally {
+      if (warn != null) {
+        warn.cancel(false);
+      }
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      //已经开始执行的检查任务取消不掉，通过执行状态保证结束以后不会再被中断
+      execution.finish();
+    }
+    long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (slowMillis > 0 && cost >= slowMillis) {
+      slow.incrementAndGet();
+      LOG.warn("{} slow listener, cost {}ms", name, cost);
+    }
+  }
+
+  /**
+   * 1次listener执行的状态，看门狗和执行线程在同一个锁上判断和修改，
+   * 看门狗只在执行期间中断线程，执行结束时如果已经被中断就清理中断标志
+   */
+  private static final class Execution {
+    private final Thread thread;
+    private boolean done;
+    private boolean interrupted;
+
+    Execution(Thread thread) {
+      this.thread = thread;
+    }
+
+    synchronized boolean isDone() {
+      return done;
+    }
+
+    /**
+     * @return 已经执行结束返回false，不做中断
+     */
+    synchronized boolean interrupt() {
+      if (done) {
+        return false;
+      }
+      interrupted = true;
+      thread.interrupt();
+      return true;
+    }
+
+    /**
+     * 在执行线程中调用，清理超时设置的中断标志，避免影响线程池里的后续任务
+     */
+    synchronized void finish() {
+      done = true;
+      if (interrupted) {
+        Thread.interrupted();
+      }
+    }
+  }
+
+  /**
+   * 一次待执行的通知
+   */
+  abstract static class Task implements Runnable {
+    /**
+     * 和后面的通知合并成1个
+     *
+     * @param later 后面的通知
+     * @return 合并后的通知
+     */
+    abstract Task merge(Task later);
+  }
+
+  /**
+   * 单个listener的串行队列
+   */
+  static final class Lane implements Runnable {
+    private final Dispatcher dispatcher;
+    private final String name;
+    private Task pending;
+    private boolean scheduled;
+
+    Lane(Dispatcher dispatcher, String name) {
+      this.dispatcher = dispatcher;
+      this.name = name;
+    }
+
+    void submit(Task task) {
+      synchronized (this) {
+        if (pending != null) {
+          pending = pending.merge(task);
+          dispatcher.coalesced.incrementAndGet();
+          LOG.debug("{} coalesced", name);
+        } else {
+          pending = task;
+        }
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      schedule();
+    }
+
+    /**
+     * 丢弃还没执行的通知
+     */
+    synchronized void cancel() {
+      pending = null;
+    }
+
+    @Override
+    public void run() {
+      Task task;
+      synchronized (this) {
+        task = pending;
+        pending = null;
+      }
+      boolean more;
+      try {
+        if (task != null) {
+          dispatcher.invoke(name, task);
+        }
+      } finally {
+        //listener抛出Error时也要重置调度状态，否则这个listener再也收不到通知
+        synchronized (this) {
+          more = pending != null;
+          if (!more) {
+            scheduled = false;
+          }
+        }
+        //每次只执行1个通知就交还线程，避免一直占用线程池
+        if (more) {
+          schedule();
+        }
+      }
+    }
+
+    private void schedule() {
+      try {
+        dispatcher.executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        LOG.error("cannot dispatch {}", name, e);
+        synchronized (this) {
+          scheduled = false;
+        }
+      }
+    }
+  }
+
+  private static final class Watchdog {
+    private static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+    private static ScheduledThreadPoolExecutor create() {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("ListenerWatchdog").setDaemon(true).build());
+      //listener正常结束会取消检查任务，取消后马上从队列中删除
+      executor.setRemoveOnCancelPolicy(true);
+      return executor;
+    }
+  }
+}
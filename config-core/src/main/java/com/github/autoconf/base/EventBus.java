@@ -3,25 +3,56 @@ package com.github.autoconf.base;
 import com.github.autoconf.api.IChangeListener;
 import com.github.autoconf.api.IChangeable;
 import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * 消息总线，允许注册消息
+ * 消息总线，允许注册消息。默认在发现变化的线程中依次通知，设置dispatcher后改为异步通知。
+ * 按key和按前缀注册的listener记录在反向索引中，每次更新只按变化的key查找需要通知的listener
  * Created by lirui on 15/9/24.
  */
 public class EventBus implements IChangeable {
   private static final Logger LOG = LoggerFactory.getLogger(EventBus.class);
   private final Set<IChangeListener> listeners = Sets.newConcurrentHashSet();
+  private final Set<IDiffListener> diffListeners = Sets.newConcurrentHashSet();
+  private final ConcurrentMap<String, Set<IChangeListener>> keyIndex = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, Set<IChangeListener>> prefixIndex = Maps.newConcurrentMap();
   private final IConfig config;
+  private final ConcurrentMap<Object, Dispatcher.Lane> lanes = Maps.newConcurrentMap();
+  private volatile Dispatcher dispatcher;
 
   public EventBus(IConfig config) {
     this.config = config;
   }
 
+  public Dispatcher getDispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * 设置异步通知，注册时的首次回调仍然在注册线程中执行
+   *
+   * @param dispatcher 为null表示在发现变化的线程中依次通知
+   */
+  public void setDispatcher(Dispatcher dispatcher) {
+    this.dispatcher = dispatcher;
+    lanes.clear();
+  }
+
   public void addListener(IChangeListener listener) {
     addListener(listener, true);
   }
@@ -39,20 +70,233 @@ public class EventBus implements IChangeable {
     }
   }
 
+  public void addListener(Set<String> keys, IChangeListener listener) {
+    addListener(keys, listener, true);
+  }
+
+  public void addListener(Set<String> keys, IChangeListener listener, boolean loadAfterRegister) {
+    Preconditions.checkNotNull(keys, "keys");
+    if (listener != null && subscribe(keyIndex, keys, listener) && loadAfterRegister) {
+      load(listener);
+    }
+  }
+
+  public void addPrefixListener(String prefix, IChangeListener listener, boolean loadAfterRegister) {
+    Preconditions.checkNotNull(prefix, "prefix");
+    if (listener != null && subscribe(prefixIndex, Sets.newHashSet(prefix), listener) && loadAfterRegister) {
+      load(listener);
+    }
+  }
+
   public void removeListener(IChangeListener listener) {
     if (listener != null) {
       listeners.remove(listener);
+      unsubscribe(keyIndex, listener);
+      unsubscribe(prefixIndex, listener);
+      cancel(listener);
+    }
+  }
+
+  public void addDiffListener(IDiffListener listener, boolean loadAfterRegister) {
+    if (listener != null && diffListeners.add(listener) && loadAfterRegister) {
+      try {
+        listener.changed(config, fullDiff().get());
+      } catch (Exception e) {
+        LOG.error("cannot reload " + config.getName(), e);
+      }
+    }
+  }
+
+  public void removeDiffListener(IDiffListener listener) {
+    if (listener != null) {
+      diffListeners.remove(listener);
+      cancel(listener);
     }
   }
 
+  /**
+   * 是否注册了任何listener，包括按key、前缀订阅的listener和diff listener
+   */
+  public boolean hasListeners() {
+    return !listeners.isEmpty() || !diffListeners.isEmpty() || !keyIndex.isEmpty() || !prefixIndex.isEmpty();
+  }
+
+  /**
+   * 不知道更新前的内容，diff listener收到的差异把所有key都当作新增
+   */
   public void notifyListeners() {
+    notifyListeners(fullDiff());
+  }
+
+  /**
+   * 通知所有回调函数
+   *
+   * @param diff 更新前后的差异，只在有diff listener的时候才计算，并且只计算1次
+   */
+  public void notifyListeners(Supplier<? extends IConfigDiff> diff) {
+    Dispatcher d = dispatcher;
     for (IChangeListener i : listeners) {
       LOG.info("{} changed, notify {}", config.getName(), i);
+      dispatch(d, i, new ChangeTask(i));
+    }
+    if (diffListeners.isEmpty() && keyIndex.isEmpty() && prefixIndex.isEmpty()) {
+      return;
+    }
+    IConfigDiff changes = diff.get();
+    if (changes.isEmpty()) {
+      LOG.info("{} changed, no key changed", config.getName());
+      return;
+    }
+    for (IChangeListener i : affected(changes)) {
+      LOG.info("{} changed, notify {}", config.getName(), i);
+      dispatch(d, i, new ChangeTask(i));
+    }
+    for (IDiffListener i : diffListeners) {
+      LOG.info("{} changed, notify {}", config.getName(), i);
+      dispatch(d, i, new DiffTask(i, changes));
+    }
+  }
+
+  /**
+   * 按变化的key查找需要通知的listener，同一个listener只通知1次
+   */
+  private Set<IChangeListener> affected(IConfigDiff changes) {
+    Set<IChangeListener> found = Sets.newLinkedHashSet();
+    if (!keyIndex.isEmpty()) {
+      for (String key : changes.getKeys()) {
+        Set<IChangeListener> s = keyIndex.get(key);
+        if (s != null) {
+          found.addAll(s);
+        }
+      }
+    }
+    if (!prefixIndex.isEmpty()) {
+      //变化的key排序以后，每个前缀只需要查找1次大于等于它的第1个key
+      NavigableSet<String> sorted = Sets.newTreeSet(changes.getKeys());
+      for (Map.Entry<String, Set<IChangeListener>> i : prefixIndex.entrySet()) {
+        String key = sorted.ceiling(i.getKey());
+        if (key != null && key.startsWith(i.getKey())) {
+          found.addAll(i.getValue());
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * 修改索引时加锁，避免删除空集合的同时有新的listener加入被删掉的集合
+   */
+  private synchronized boolean subscribe(ConcurrentMap<String, Set<IChangeListener>> index, Set<String> keys, IChangeListener listener) {
+    boolean added = false;
+    for (String key : keys) {
+      Set<IChangeListener> s = index.get(key);
+      if (s == null) {
+        s = Sets.newConcurrentHashSet();
+        index.put(key, s);
+      }
+      added |= s.add(listener);
+    }
+    return added;
+  }
+
+  private synchronized void unsubscribe(ConcurrentMap<String, Set<IChangeListener>> index, IChangeListener listener) {
+    Iterator<Set<IChangeListener>> it = index.values().iterator();
+    while (it.hasNext()) {
+      Set<IChangeListener> s = it.next();
+      if (s.remove(listener) && s.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  private void load(IChangeListener listener) {
+    try {
+      listener.changed(config);
+    } catch (Exception e) {
+      LOG.error("cannot reload " + config.getName(), e);
+    }
+  }
+
+  private void dispatch(Dispatcher d, Object listener, Dispatcher.Task task) {
+    if (d == null) {
       try {
-        i.changed(config);
+        task.run();
       } catch (Exception e) {
         LOG.error("cannot reload " + config.getName(), e);
       }
+      return;
+    }
+    Dispatcher.Lane lane = lanes.get(listener);
+    if (lane == null) {
+      Dispatcher.Lane created = new Dispatcher.Lane(d, config.getName() + " -> " + listener);
+      lane = lanes.putIfAbsent(listener, created);
+      if (lane == null) {
+        lane = created;
+      }
+    }
+    lane.submit(task);
+  }
+
+  private void cancel(Object listener) {
+    Dispatcher.Lane lane = lanes.remove(listener);
+    if (lane != null) {
+      lane.cancel();
+    }
+  }
+
+  private Supplier<IConfigDiff> fullDiff() {
+    return Suppliers.memoize(new Supplier<IConfigDiff>() {
+      @Override
+      public IConfigDiff get() {
+        return ConfigDiff.between(ImmutableMap.<String, String>of(), config.getAll(), 0L, config.getVersion());
+      }
+    });
+  }
+
+  /**
+   * 通知普通listener，多次通知合并成1次，listener自己读取最新配置
+   */
+  private final class ChangeTask extends Dispatcher.Task {
+    private final IChangeListener listener;
+
+    ChangeTask(IChangeListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    Dispatcher.Task merge(Dispatcher.Task later) {
+      return this;
+    }
+
+    @Override
+    public void run() {
+      listener.changed(config);
+    }
+  }
+
+  /**
+   * 通知diff listener，多次通知的差异合并成1个
+   */
+  private final class DiffTask extends Dispatcher.Task {
+    private final IDiffListener listener;
+    private final IConfigDiff diff;
+
+    DiffTask(IDiffListener listener, IConfigDiff diff) {
+      this.listener = listener;
+      this.diff = diff;
+    }
+
+    @Override
+    Dispatcher.Task merge(Dispatcher.Task later) {
+      return new DiffTask(listener, ConfigDiff.merge(diff, ((DiffTask) later).diff));
+    }
+
+    @Override
+    public void run() {
+      //合并后可能正好改回了原来的值
+      if (!diff.isEmpty()) {
+        listener.changed(config, diff);
+      }
     }
   }
 }
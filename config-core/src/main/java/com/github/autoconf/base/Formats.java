@@ -0,0 +1,75 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IFormat;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内置的结构化配置格式，以及把树形结构展开成kv的方法
+ */
+public final class Formats {
+  public static final IFormat JSON = new JsonFormat();
+  public static final IFormat YAML = new YamlFormat();
+  public static final IFormat INI = new IniFormat();
+  /**
+   * json和yaml允许的最大嵌套层数，递归解析时超过就报错，避免恶意内容撑爆线程栈
+   */
+  static final int MAX_DEPTH = 512;
+
+  private Formats() {
+  }
+
+  /**
+   * 根据配置名的扩展名选择格式，.json使用json，.yaml和.yml使用yaml。
+   * 历史上.ini一直按kv格式解析，所以不会自动使用ini格式。
+   * 配置不会自动使用这里选出的格式，需要调用setFormat或者打开工厂的structuredFormat
+   *
+   * @param name 配置名
+   * @return 不是结构化格式返回null
+   */
+  public static IFormat forName(String name) {
+    if (name == null) {
+      return null;
+    }
+    String lower = name.toLowerCase();
+    if (lower.endsWith(".json")) {
+      return JSON;
+    }
+    if (lower.endsWith(".yaml") || lower.endsWith(".yml")) {
+      return YAML;
+    }
+    return null;
+  }
+
+  /**
+   * 把树形结构展开成kv，map的key用.连接，list的下标用[i]表示，比如 servers[0].host。
+   * null、空map和空list不生成kv，展开以后重复的key后出现的覆盖先出现的
+   *
+   * @param tree 解析出来的根节点
+   * @return 保持原有顺序的kv
+   */
+  public static Map<String, String> flatten(Object tree) {
+    Map<String, String> m = Maps.newLinkedHashMap();
+    flatten("", tree, m);
+    return ImmutableMap.copyOf(m);
+  }
+
+  private static void flatten(String path, Object node, Map<String, String> m) {
+    if (node instanceof Map) {
+      for (Map.Entry<?, ?> i : ((Map<?, ?>) node).entrySet()) {
+        String key = String.valueOf(i.getKey());
+        flatten(path.isEmpty() ? key : path + '.' + key, i.getValue(), m);
+      }
+    } else if (node instanceof List) {
+      List<?> list = (List<?>) node;
+      for (int i = 0; i < list.size(); i++) {
+        flatten(path + '[' + i + ']', list.get(i), m);
+      }
+    } else if (node != null) {
+      m.put(path, node.toString());
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IFormat;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * ini解析，[section]下的key放在section节点下面，展开以后就是section.key。
+ * 支持=和:分隔，#和;开头的行是注释，第一个section之前的key放在根节点
+ */
+final class IniFormat implements IFormat {
+  @Override
+  public String getName() {
+    return "ini";
+  }
+
+  @Override
+  public Object parse(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    Map<String, Object> root = Maps.newLinkedHashMap();
+    Map<String, Object> section = root;
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == ';') {
+        continue;
+      }
+      if (line.charAt(0) == '[' && line.endsWith("]")) {
+        String name = line.substring(1, line.length() - 1).trim();
+        section = section(root, name);
+        continue;
+      }
+      int eq = line.indexOf('=');
+      int colon = line.indexOf(':');
+      int sep = eq < 0 ? colon : (colon < 0 ? eq : Math.min(eq, colon));
+      if (sep <= 0) {
+        continue;
+      }
+      section.put(line.substring(0, sep).trim(), unquote(line.substring(sep + 1).trim()));
+    }
+    return root;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> section(Map<String, Object> root, String name) {
+    Object exist = root.get(name);
+    if (exist instanceof Map) {
+      return (Map<String, Object>) exist;
+    }
+    Map<String, Object> m = Maps.newLinkedHashMap();
+    root.put(name, m);
+    return m;
+  }
+
+  private static String unquote(String s) {
+    int n = s.length();
+    if (n >= 2 && (s.charAt(0) == '"' || s.charAt(0) == '\'') && s.charAt(n - 1) == s.charAt(0)) {
+      return s.substring(1, n - 1);
+    }
+    return s;
+  }
+}
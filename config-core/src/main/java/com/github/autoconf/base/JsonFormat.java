@@ -0,0 +1,277 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IFormat;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * json解析，边读边解析，不需要先把整个文档读成字符串。
+ * 整数在long范围内解析成Long，其他数字解析成Double，对象保持原有的key顺序
+ */
+final class JsonFormat implements IFormat {
+  @Override
+  public String getName() {
+    return "json";
+  }
+
+  @Override
+  public Object parse(Reader reader) throws IOException {
+    Parser p = new Parser(reader);
+    int c = p.skipSpace();
+    if (c < 0) {
+      return Maps.newLinkedHashMap();
+    }
+    Object root = p.value();
+    if (p.skipSpace() >= 0) {
+      throw p.error("unexpected content after root");
+    }
+    return root;
+  }
+
+  private static final class Parser {
+    private final Reader reader;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private int depth;
+    private final StringBuilder sbd = new StringBuilder();
+
+    Parser(Reader reader) {
+      this.reader = reader;
+    }
+
+    Object value() throws IOException {
+      int c = skipSpace();
+      switch (c) {
+        case '{':
+          return object();
+        case '[':
+          return array();
+        case '"':
+          pos++;
+          return string();
+        case 't':
+          literal("true");
+          return Boolean.TRUE;
+        case 'f':
+          literal("false");
+          return Boolean.FALSE;
+        case 'n':
+          literal("null");
+          return null;
+        default:
+          if (c == '-' || (c >= '0' && c <= '9')) {
+            return number();
+          }
+          throw error(c < 0 ? "unexpected end" : "unexpected char '" + (char) c + "'");
+      }
+    }
+
+    private Map<String, Object> object() throws IOException {
+      pos++;
+      enter();
+      Map<String, Object> m = Maps.newLinkedHashMap();
+      if (skipSpace() == '}') {
+        pos++;
+        depth--;
+        return m;
+      }
+      while (true) {
+        if (skipSpace() != '"') {
+          throw error("expect key");
+        }
+        pos++;
+        String key = string();
+        if (skipSpace() != ':') {
+          throw error("expect ':'");
+        }
+        pos++;
+        m.put(key, value());
+        int c = skipSpace();
+        pos++;
+        if (c == '}') {
+          depth--;
+          return m;
+        }
+        if (c != ',') {
+          throw error("expect ',' or '}'");
+        }
+      }
+    }
+
+    private List<Object> array() throws IOException {
+      pos++;
+      enter();
+      List<Object> list = Lists.newArrayList();
+      if (skipSpace() == ']') {
+        pos++;
+        depth--;
+        return list;
+      }
+      while (true) {
+        list.add(value());
+        int c = skipSpace();
+        pos++;
+        if (c == ']') {
+          depth--;
+          return list;
+        }
+        if (c != ',') {
+          throw error("expect ',' or ']'");
+        }
+      }
+    }
+
+    private void enter() throws IOException {
+      if (++depth > Formats.MAX_DEPTH) {
+        throw error("nesting deeper than " + Formats.MAX_DEPTH);
+      }
+    }
+
+    private String string() throws IOException {
+      sbd.setLength(0);
+      while (true) {
+        int c = next();
+        if (c < 0) {
+          throw error("unterminated string");
+        }
+        if (c == '"') {
+          return sbd.toString();
+        }
+        if (c != '\\') {
+          sbd.append((char) c);
+          continue;
+        }
+        c = next();
+        switch (c) {
+          case '"':
+          case '\\':
+          case '/':
+            sbd.append((char) c);
+            break;
+          case 'b':
+            sbd.append('\b');
+            break;
+          case 'f':
+            sbd.append('\f');
+            break;
+          case 'n':
+            sbd.append('\n');
+            break;
+          case 'r':
+            sbd.append('\r');
+            break;
+          case 't':
+            sbd.append('\t');
+            break;
+          case 'u':
+            int u = 0;
+            for (int i = 0; i < 4; i++) {
+              int d = Character.digit(next(), 16);
+              if (d < 0) {
+                throw error("bad unicode escape");
+              }
+              u = (u << 4) | d;
+            }
+            sbd.append((char) u);
+            break;
+          default:
+            throw error("bad escape");
+        }
+      }
+    }
+
+    private Object number() throws IOException {
+      sbd.setLength(0);
+      boolean decimal = false;
+      while (true) {
+        int c = peek();
+        if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+          sbd.append((char) c);
+        } else if (c == '.' || c == 'e' || c == 'E') {
+          sbd.append((char) c);
+          decimal = true;
+        } else {
+          break;
+        }
+        pos++;
+      }
+      String s = sbd.toString();
+      try {
+        if (!decimal) {
+          try {
+            return Long.parseLong(s);
+          } catch (NumberFormatException ignored) {
+            //超出long范围的整数按照浮点数处理
+          }
+        }
+        return Double.parseDouble(s);
+      } catch (NumberFormatException e) {
+        throw error("bad number " + s);
+      }
+    }
+
+    private void literal(String expect) throws IOException {
+      for (int i = 0; i < expect.length(); i++) {
+        if (next() != expect.charAt(i)) {
+          throw error("expect " + expect);
+        }
+      }
+    }
+
+    /**
+     * 跳过空白字符，返回下一个字符但不消费，结束时返回-1
+     */
+    int skipSpace() throws IOException {
+      while (true) {
+        int c = peek();
+        if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+          pos++;
+        } else {
+          return c;
+        }
+      }
+    }
+
+    private int peek() throws IOException {
+      if (pos >= limit && !fill()) {
+        return -1;
+      }
+      return buf[pos];
+    }
+
+    private int next() throws IOException {
+      if (pos >= limit && !fill()) {
+        return -1;
+      }
+      return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+      for (int i = 0; i < limit; i++) {
+        if (buf[i] == '\n') {
+          line++;
+        }
+      }
+      pos = 0;
+      limit = Math.max(reader.read(buf), 0);
+      return limit > 0;
+    }
+
+    IOException error(String msg) {
+      int n = line;
+      for (int i = 0; i < pos && i < limit; i++) {
+        if (buf[i] == '\n') {
+          n++;
+        }
+      }
+      return new IOException("json " + msg + " at line " + n);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.github.autoconf.base;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 直接在UTF8字节流上解析kv格式配置，只扫描1遍，不生成中间的整段文本和行列表。
+ * <pre>
+ * 解析规则和按行解析文本保持一致:
+ * 1. 按照'\n'分行，每行去掉首尾空白字符，忽略空行
+ * 2. 忽略 '#' 和 '//' 开头的注释行
+ * 3. 第一个 '=' 分隔key和value，key和value分别做trim，'=' 在行尾的忽略
+ * 4. 同名key后面的覆盖前面的
+ * </pre>
+ */
+final class KvParser {
+  private static final CharMatcher WHITESPACE = CharMatcher.WHITESPACE;
+
+  private KvParser() {
+  }
+
+  static Map<String, String> parse(byte[] bytes) {
+    return parse(new Bytes(bytes));
+  }
+
+  static Map<String, String> parse(final Bytes bytes) {
+    final Map<String, String> m = Maps.newLinkedHashMap();
+    scan(bytes, new Sink() {
+      @Override
+      public void put(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        m.put(bytes.decode(keyStart, keyEnd - keyStart), bytes.decode(valueStart, valueEnd - valueStart));
+      }
+    });
+    return Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * 扫描字节流，把每个kv的key和value在字节流中的位置交给sink处理。
+   *
+   * @param bytes 字节流
+   * @param sink  处理kv位置
+   */
+  static void scan(Bytes bytes, Sink sink) {
+    int len = bytes.length();
+    int start = 0;
+    while (start < len) {
+      int end = start;
+      while (end < len && bytes.get(end) != '\n') {
+        end++;
+      }
+      scanLine(bytes, start, end, sink);
+      start = end + 1;
+    }
+  }
+
+  private static void scanLine(Bytes b, int start, int end, Sink sink) {
+    int s = trimStart(b, start, end);
+    int e = trimEnd(b, s, end);
+    if (s == e) {
+      return;
+    }
+    if (b.get(s) == '#' || (b.get(s) == '/' && s + 1 < e && b.get(s + 1) == '/')) {
+      return;
+    }
+    //'='是单字节字符，不会出现在多字节字符的编码中，可以直接按字节查找
+    int pos = s;
+    while (pos < e && b.get(pos) != '=') {
+      pos++;
+    }
+    if (pos == e || pos + 1 == e) {
+      return;
+    }
+    int ks = s;
+    int ke = pos;
+    while (ks < ke && (b.get(ks) & 0xFF) <= ' ') {
+      ks++;
+    }
+    while (ke > ks && (b.get(ke - 1) & 0xFF) <= ' ') {
+      ke--;
+    }
+    int vs = pos + 1;
+    int ve = e;
+    while (vs < ve && (b.get(vs) & 0xFF) <= ' ') {
+      vs++;
+    }
+    while (ve > vs && (b.get(ve - 1) & 0xFF) <= ' ') {
+      ve--;
+    }
+    sink.put(ks, ke, vs, ve);
+  }
+
+  private static int trimStart(Bytes b, int s, int e) {
+    while (s < e) {
+      int n = whitespaceLength(b, s, e);
+      if (n == 0) {
+        break;
+      }
+      s += n;
+    }
+    return s;
+  }
+
+  private static int trimEnd(Bytes b, int s, int e) {
+    while (e > s) {
+      //找到最后1个字符的起始位置
+      int j = e - 1;
+      while (j > s && j > e - 3 && (b.get(j) & 0xC0) == 0x80) {
+        j--;
+      }
+      if (whitespaceLength(b, j, e) != e - j) {
+        break;
+      }
+      e = j;
+    }
+    return e;
+  }
+
+  /**
+   * 判断pos位置的字符是否是空白字符
+   *
+   * @return 空白字符占用的字节数，不是空白字符返回0
+   */
+  private static int whitespaceLength(Bytes b, int pos, int end) {
+    int c = b.get(pos) & 0xFF;
+    if (c < 0x80) {
+      return WHITESPACE.matches((char) c) ? 1 : 0;
+    }
+    //空白字符都在BMP范围内，只需要处理2字节和3字节编码
+    if ((c & 0xE0) == 0xC0 && pos + 1 < end) {
+      int c1 = b.get(pos + 1) & 0xFF;
+      if ((c1 & 0xC0) == 0x80) {
+        char ch = (char) (((c & 0x1F) << 6) | (c1 & 0x3F));
+        return ch >= 0x80 && WHITESPACE.matches(ch) ? 2 : 0;
+      }
+    } else if ((c & 0xF0) == 0xE0 && pos + 2 < end) {
+      int c1 = b.get(pos + 1) & 0xFF;
+      int c2 = b.get(pos + 2) & 0xFF;
+      if ((c1 & 0xC0) == 0x80 && (c2 & 0xC0) == 0x80) {
+        char ch = (char) (((c & 0x0F) << 12) | ((c1 & 0x3F) << 6) | (c2 & 0x3F));
+        return ch >= 0x800 && WHITESPACE.matches(ch) ? 3 : 0;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * 接收解析出来的kv在字节流中的位置，区间都是左闭右开
+   */
+  interface Sink {
+    void put(int keyStart, int keyEnd, int valueStart, int valueEnd);
+  }
+}
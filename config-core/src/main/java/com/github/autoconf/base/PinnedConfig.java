@@ -0,0 +1,63 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IConfig;
+import com.google.common.base.Function;
+
+/**
+ * 固定在某个快照上的只读配置，原配置更新以后内容也不会变化
+ */
+final class PinnedConfig extends Config implements IConfig {
+  private final String name;
+  private final Snapshot snapshot;
+  /**
+   * 先查找原配置的缓存，原配置还没有更新时直接使用原配置构建好的对象
+   */
+  private final DerivedCache derived;
+
+  PinnedConfig(Config parent, String name, Snapshot snapshot) {
+    this.name = name;
+    this.snapshot = snapshot;
+    this.derived = new DerivedCache(parent.derived());
+    setFormat(parent.getFormat());
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public IConfig subset(String prefix) {
+    return new SubsetConfig(this, name, prefix);
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder) {
+    return derived.get(this, id, builder, false);
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder, boolean background) {
+    return derived.get(this, id, builder, background);
+  }
+
+  @Override
+  DerivedCache derived() {
+    return derived;
+  }
+
+  @Override
+  protected Snapshot snapshot() {
+    return snapshot;
+  }
+
+  @Override
+  protected void install(Snapshot s) {
+    throw new UnsupportedOperationException("pinned config is read only: " + name);
+  }
+
+  @Override
+  public String toString() {
+    return "PinnedConfig{" + "name=" + name + ", version=" + snapshot.getVersion() + '}';
+  }
+}
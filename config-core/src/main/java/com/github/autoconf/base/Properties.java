@@ -1,8 +1,5 @@
 package com.github.autoconf.base;
 
-import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
-
 import java.util.Map;
 
 /**
@@ -11,10 +8,40 @@ import java.util.Map;
  * Created by lirui on 15/9/28.
  */
 public class Properties {
-  private Map<String, String> m = ImmutableMap.of();
+  /**
+   * 当前生效的配置快照，更新的时候整体替换，读取不加锁
+   */
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
 
   public void copyOf(Map<String, String> items) {
-    this.m = ImmutableMap.copyOf(items);
+    install(Snapshot.of(items));
+  }
+
+  /**
+   * 获取当前生效的快照，需要多次读取时应该先拿到快照再读，保证数据来自同一个版本
+   *
+   * @return 快照
+   */
+  protected Snapshot snapshot() {
+    return snapshot;
+  }
+
+  /**
+   * 按key取值用的快照，默认就是当前快照，结构化格式的配置返回展开成kv以后的视图
+   *
+   * @return 快照
+   */
+  protected Snapshot kv() {
+    return snapshot();
+  }
+
+  /**
+   * 原子替换当前快照
+   *
+   * @param s 新快照
+   */
+  protected void install(Snapshot s) {
+    this.snapshot = s;
   }
 
   public int getInt(String key) {
@@ -22,14 +49,8 @@ public class Properties {
   }
 
   public int getInt(String key, int defaultVal) {
-    String val = get(key);
-    if (!Strings.isNullOrEmpty(val)) {
-      try {
-        return Integer.parseInt(val);
-      } catch (NumberFormatException ignored) {
-      }
-    }
-    return defaultVal;
+    TypedValue v = kv().typed(key);
+    return v != null && v.intOk ? v.intVal : defaultVal;
   }
 
   public long getLong(String key) {
@@ -37,14 +58,8 @@ public class Properties {
   }
 
   public long getLong(String key, long defaultVal) {
-    String val = get(key);
-    if (!Strings.isNullOrEmpty(val)) {
-      try {
-        return Long.parseLong(val);
-      } catch (NumberFormatException ignored) {
-      }
-    }
-    return defaultVal;
+    TypedValue v = kv().typed(key);
+    return v != null && v.longOk ? v.longVal : defaultVal;
   }
 
   public boolean getBool(String key) {
@@ -52,11 +67,8 @@ public class Properties {
   }
 
   public boolean getBool(String key, boolean defaultVal) {
-    String val = get(key);
-    if (!Strings.isNullOrEmpty(val)) {
-      return Boolean.parseBoolean(val);
-    }
-    return defaultVal;
+    TypedValue v = kv().typed(key);
+    return v != null && v.boolOk ? v.boolVal : defaultVal;
   }
 
   public double getDouble(String key) {
@@ -64,14 +76,8 @@ public class Properties {
   }
 
   public double getDouble(String key, double defaultVal) {
-    String val = get(key);
-    if (!Strings.isNullOrEmpty(val)) {
-      try {
-        return Double.parseDouble(val);
-      } catch (NumberFormatException ignored) {
-      }
-    }
-    return defaultVal;
+    TypedValue v = kv().typed(key);
+    return v != null && v.doubleOk ? v.doubleVal : defaultVal;
   }
 
   public String get(String key, String defaultVal) {
@@ -90,10 +96,10 @@ public class Properties {
    * @return 获取对应的value
    */
   public String get(String key) {
-    return m.get(key);
+    return kv().getAll().get(key);
   }
 
   public Map<String, String> getAll() {
-    return m;
+    return kv().getAll();
   }
 }
@@ -0,0 +1,395 @@
+package com.github.autoconf.base;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 配置内容的不可变快照，包含原始字节流以及懒加载解析出来的kv内容。
+ * <pre>
+ * 1. 每次更新配置都生成一个新快照，通过volatile引用整体替换，读取时不需要加锁
+ * 2. 字节流和kv内容总是来自同一个快照，不会读到新旧版本混合的数据
+ * 3. 只在首次解析的时候加锁，避免多个线程同时解析同一份大配置
+ * 4. getInt等方法解析出来的数值也缓存在快照里，配置更新时随旧快照整体丢弃
+ * 5. 每个快照有进程内单调递增的版本号，以及内容的64位hash，用于快速判断内容是否变化
+ * 6. 按编码解码出来的文本和文本行也缓存在快照里，每个版本只解码1次
+ * 7. 其他基于内容构建的视图(比如查找用的集合)通过view方法缓存，同样随快照整体丢弃
+ * 8. 超过阈值的大配置使用紧凑存储，只记录kv在字节流中的位置，取值的时候才生成String
+ * 9. 也可以直接基于文件映射的只读buffer创建快照，kv内容使用紧凑存储，字节流不复制到堆内
+ * </pre>
+ */
+public final class Snapshot {
+  private static final AtomicLong VERSIONS = new AtomicLong();
+  /**
+   * 字节流超过这个大小的时候使用紧凑存储，可以通过系统属性 autoconf.compactThreshold 设置
+   */
+  private static volatile int compactThreshold = Integer.getInteger("autoconf.compactThreshold", 1 << 20);
+  static final Snapshot EMPTY = new Snapshot(new byte[0], ImmutableMap.<String, String>of(), 0L);
+  private final long version;
+  private final ByteBuffer mapped;
+  private volatile byte[] content;
+  private volatile Map<String, String> m;
+  private final ConcurrentMap<String, TypedValue> typed = Maps.newConcurrentMap();
+  private final ConcurrentMap<Charset, String> texts = Maps.newConcurrentMap();
+  private final ConcurrentMap<Charset, List<String>> lines = Maps.newConcurrentMap();
+  private final ConcurrentMap<Charset, List<String>> rawLines = Maps.newConcurrentMap();
+  private final ConcurrentMap<Object, Object> views = Maps.newConcurrentMap();
+  private volatile boolean hashed = false;
+  private long hash;
+
+  private Snapshot(byte[] content, Map<String, String> m, long version) {
+    this(content, null, m, version);
+  }
+
+  private Snapshot(byte[] content, ByteBuffer mapped, Map<String, String> m, long version) {
+    this.content = content;
+    this.mapped = mapped;
+    this.m = m;
+    this.version = version;
+  }
+
+  /**
+   * 根据原始字节流创建快照，kv内容在第一次访问的时候才解析
+   *
+   * @param content 原始字节流
+   * @return 快照
+   */
+  public static Snapshot of(byte[] content) {
+    return new Snapshot(content == null ? new byte[0] : content, null, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * 根据只读buffer(一般是文件映射)创建快照，kv内容在第一次访问的时候直接在buffer上解析。
+   * 快照存活期间buffer的内容不能再修改，文件映射的buffer对应的文件也不能被截断
+   *
+   * @param buffer 原始字节流，范围是[position, limit)
+   * @return 快照
+   */
+  public static Snapshot of(ByteBuffer buffer) {
+    return new Snapshot(null, buffer.slice(), null, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * 根据kv内容创建快照，字节流在第一次访问的时候才生成
+   *
+   * @param m kv内容
+   * @return 快照
+   */
+  public static Snapshot of(Map<String, String> m) {
+    return new Snapshot(null, ImmutableMap.copyOf(m), VERSIONS.incrementAndGet());
+  }
+
+  public static int getCompactThreshold() {
+    return compactThreshold;
+  }
+
+  /**
+   * 设置使用紧凑存储的字节流大小，只影响之后解析的快照
+   *
+   * @param bytes 字节数，0表示总是使用紧凑存储，Integer.MAX_VALUE表示不使用
+   */
+  public static void setCompactThreshold(int bytes) {
+    compactThreshold = bytes;
+  }
+
+  /**
+   * 直接包装kv内容创建快照，不复制map，用于基于其他快照派生出来的只读视图
+   *
+   * @param m 只读的kv内容，快照存活期间不能再修改
+   * @return 快照，使用新的版本号
+   */
+  public static Snapshot wrap(Map<String, String> m) {
+    return new Snapshot(null, m, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * 直接包装kv内容创建快照，不复制map，用于基于其他快照派生出来的只读视图
+   *
+   * @param m       只读的kv内容，快照存活期间不能再修改
+   * @param version 版本号，一般使用原快照的版本号，只有内容完全相同时才能沿用
+   * @return 快照
+   */
+  public static Snapshot wrap(Map<String, String> m, long version) {
+    return new Snapshot(null, m, version);
+  }
+
+  /**
+   * 是否基于文件映射等只读buffer创建的快照
+   *
+   * @return 是返回true
+   */
+  public boolean isMapped() {
+    return mapped != null;
+  }
+
+  /**
+   * 字节流的长度，buffer快照不需要复制内容
+   *
+   * @return 字节数
+   */
+  public int length() {
+    return mapped != null ? mapped.limit() : getContent().length;
+  }
+
+  /**
+   * 快照版本号，新创建的快照版本号总是比之前的大
+   *
+   * @return 版本号
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * 字节流内容的64位hash，每个快照只计算1次
+   *
+   * @return hash值
+   */
+  public long getContentHash() {
+    if (!hashed) {
+      synchronized (this) {
+        if (!hashed) {
+          hash = mapped != null ? hash(mapped) : Hashing.murmur3_128().hashBytes(getContent()).asLong();
+          hashed = true;
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * 判断两个快照的内容是否相同，先比较长度再比较hash
+   *
+   * @param other 另外一个快照
+   * @return 内容相同返回true
+   */
+  public boolean sameContent(Snapshot other) {
+    return length() == other.length() && getContentHash() == other.getContentHash();
+  }
+
+  /**
+   * 原始字节流，buffer快照第1次调用时复制1份到堆内并缓存，大配置应该尽量使用openStream
+   *
+   * @return 字节流
+   */
+  public byte[] getContent() {
+    byte[] bytes = content;
+    if (bytes == null) {
+      synchronized (this) {
+        bytes = content;
+        if (bytes == null) {
+          if (mapped != null) {
+            bytes = new byte[mapped.limit()];
+            mapped.duplicate().get(bytes);
+          } else {
+            bytes = render(m);
+          }
+          content = bytes;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * 以流的方式读取原始字节流，buffer快照不复制内容
+   *
+   * @return 输入流
+   */
+  public InputStream openStream() {
+    if (mapped != null) {
+      return new BufferInputStream(mapped.duplicate());
+    }
+    return new ByteArrayInputStream(getContent());
+  }
+
+  public Map<String, String> getAll() {
+    Map<String, String> items = m;
+    if (items == null) {
+      synchronized (this) {
+        items = m;
+        if (items == null) {
+          items = mapped != null ? parse(mapped) : parse(content);
+          m = items;
+        }
+      }
+    }
+    return items;
+  }
+
+  /**
+   * 用指定编码解码的文本内容
+   *
+   * @param charset 编码
+   * @return 文本
+   */
+  public String getString(Charset charset) {
+    String txt = texts.get(charset);
+    if (txt == null) {
+      synchronized (this) {
+        txt = texts.get(charset);
+        if (txt == null) {
+          txt = new String(getContent(), charset);
+          texts.put(charset, txt);
+        }
+      }
+    }
+    return txt;
+  }
+
+  /**
+   * 用指定编码解码的文本行，和文本内容共用同一次解码
+   *
+   * @param charset       编码
+   * @param removeComment 是否去掉注释行
+   * @return 只读的文本行
+   */
+  public List<String> getLines(Charset charset, boolean removeComment) {
+    ConcurrentMap<Charset, List<String>> cache = removeComment ? lines : rawLines;
+    List<String> items = cache.get(charset);
+    if (items == null) {
+      synchronized (this) {
+        items = cache.get(charset);
+        if (items == null) {
+          items = ImmutableList.copyOf(Config.lines(getString(charset), removeComment));
+          cache.put(charset, items);
+        }
+      }
+    }
+    return items;
+  }
+
+  /**
+   * 获取基于快照内容构建的视图，每个快照每种视图只构建1次，所有调用方共享
+   *
+   * @param key     视图的key，一般使用builder本身
+   * @param builder 构建视图的方法，不能返回null
+   * @param <T>     视图类型
+   * @return 视图
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T view(Object key, Function<? super Snapshot, T> builder) {
+    Object v = views.get(key);
+    if (v == null) {
+      synchronized (this) {
+        v = views.get(key);
+        if (v == null) {
+          v = builder.apply(this);
+          views.put(key, v);
+        }
+      }
+    }
+    return (T) v;
+  }
+
+  /**
+   * 获取key对应value解析后的数值，同一个快照内每个key只解析1次
+   *
+   * @param key 查找的key
+   * @return 找不到key返回null
+   */
+  TypedValue typed(String key) {
+    if (key == null) {
+      return null;
+    }
+    TypedValue v = typed.get(key);
+    if (v == null) {
+      String val = getAll().get(key);
+      if (val == null) {
+        return null;
+      }
+      v = TypedValue.parse(val);
+      TypedValue old = typed.putIfAbsent(key, v);
+      if (old != null) {
+        v = old;
+      }
+    }
+    return v;
+  }
+
+  private static Map<String, String> parse(byte[] bytes) {
+    Map<String, String> items = null;
+    if (bytes.length > 0 && bytes.length >= compactThreshold) {
+      items = CompactKvMap.build(bytes);
+    }
+    return items != null ? items : KvParser.parse(bytes);
+  }
+
+  private static Map<String, String> parse(ByteBuffer buffer) {
+    Bytes bytes = new Bytes(buffer);
+    Map<String, String> items = CompactKvMap.build(bytes);
+    return items != null ? items : KvParser.parse(bytes);
+  }
+
+  /**
+   * 分段计算buffer的hash，结果和对整个字节数组计算的一致
+   */
+  private static long hash(ByteBuffer buffer) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    ByteBuffer b = buffer.duplicate();
+    byte[] chunk = new byte[8192];
+    while (b.hasRemaining()) {
+      int n = Math.min(chunk.length, b.remaining());
+      b.get(chunk, 0, n);
+      hasher.putBytes(chunk, 0, n);
+    }
+    return hasher.hash().asLong();
+  }
+
+  private static byte[] render(Map<String, String> m) {
+    if (m.isEmpty()) {
+      return new byte[0];
+    }
+    StringBuilder sbd = new StringBuilder();
+    for (Map.Entry<String, String> i : m.entrySet()) {
+      sbd.append(i.getKey()).append('=').append(i.getValue()).append('\n');
+    }
+    return sbd.toString().getBytes(Config.UTF8);
+  }
+
+  /**
+   * 直接读取buffer的输入流
+   */
+  private static final class BufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
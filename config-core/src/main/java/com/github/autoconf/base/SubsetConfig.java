@@ -0,0 +1,204 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IConfig;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 配置中指定前缀的子集视图，查找时自动加上前缀，返回的key都去掉了前缀。
+ * <pre>
+ * 1. 原配置的每个快照只构建1次排好序的key索引，按前缀查找范围只需要二分查找，不用遍历全部配置
+ * 2. 子集不复制kv内容，只记录在索引中的范围，读取时转到原配置
+ * 3. 每次读取都基于原配置当前的快照，原配置更新以后子集自动跟着变化
+ * 4. 子集是只读的，版本号和原配置保持一致
+ * </pre>
+ */
+final class SubsetConfig extends Config implements IConfig {
+  /**
+   * 排好序的key索引，同一个快照的所有子集共用
+   */
+  private static final Function<Snapshot, String[]> SORTED_KEYS = new Function<Snapshot, String[]>() {
+    @Override
+    public String[] apply(Snapshot input) {
+      String[] keys = input.getAll().keySet().toArray(new String[0]);
+      Arrays.sort(keys);
+      return keys;
+    }
+  };
+  private final Config parent;
+  private final String parentName;
+  private final String prefix;
+  private final PrefixView builder;
+  /**
+   * 原配置上前缀相同的子集共用
+   */
+  private final DerivedCache derived;
+
+  SubsetConfig(Config parent, String parentName, String prefix) {
+    this.parent = parent;
+    this.parentName = parentName;
+    this.prefix = Preconditions.checkNotNull(prefix, "prefix");
+    this.builder = new PrefixView(prefix);
+    this.derived = parent.derived().subset(prefix);
+  }
+
+  @Override
+  public String getName() {
+    return parentName == null ? prefix : parentName + ':' + prefix;
+  }
+
+  @Override
+  public IConfig subset(String prefix) {
+    return new SubsetConfig(parent, parentName, this.prefix + prefix);
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder) {
+    return derived.get(this, id, builder, false);
+  }
+
+  @Override
+  public <T> T derive(String id, Function<? super IConfig, ? extends T> builder, boolean background) {
+    return derived.get(this, id, builder, background);
+  }
+
+  @Override
+  DerivedCache derived() {
+    return derived;
+  }
+
+  @Override
+  protected Snapshot snapshot() {
+    return parent.kv().view(builder, builder);
+  }
+
+  @Override
+  protected void install(Snapshot s) {
+    throw new UnsupportedOperationException("subset is read only: " + getName());
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  /**
+   * 按前缀构建子集快照，同时作为快照中视图的key，前缀相同的子集共用1个视图，
+   * 反复调用subset不会让原配置快照缓存的视图越来越多
+   */
+  private static final class PrefixView implements Function<Snapshot, Snapshot> {
+    private final String prefix;
+
+    PrefixView(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Snapshot apply(Snapshot input) {
+      String[] keys = input.view(SORTED_KEYS, SORTED_KEYS);
+      int from = Arrays.binarySearch(keys, prefix);
+      if (from < 0) {
+        from = -from - 1;
+      }
+      int to = from;
+      while (to < keys.length && keys[to].startsWith(prefix)) {
+        to++;
+      }
+      return Snapshot.wrap(new PrefixMap(input.getAll(), keys, from, to, prefix), input.getVersion());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || o instanceof PrefixView && prefix.equals(((PrefixView) o).prefix);
+    }
+
+    @Override
+    public int hashCode() {
+      return prefix.hashCode();
+    }
+  }
+
+  /**
+   * 原配置中前缀相同的一段key，返回的key去掉了前缀
+   */
+  private static final class PrefixMap extends AbstractMap<String, String> {
+    private final Map<String, String> m;
+    private final String[] keys;
+    private final int from;
+    private final int to;
+    private final String prefix;
+    private Set<Entry<String, String>> entries;
+
+    PrefixMap(Map<String, String> m, String[] keys, int from, int to, String prefix) {
+      this.m = m;
+      this.keys = keys;
+      this.from = from;
+      this.to = to;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String && m.containsKey(prefix + key);
+    }
+
+    @Override
+    public String get(Object key) {
+      return key instanceof String ? m.get(prefix + key) : null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      Set<Entry<String, String>> s = entries;
+      if (s == null) {
+        s = new AbstractSet<Entry<String, String>>() {
+          @Override
+          public Iterator<Entry<String, String>> iterator() {
+            return new Iterator<Entry<String, String>>() {
+              private int next = from;
+
+              @Override
+              public boolean hasNext() {
+                return next < to;
+              }
+
+              @Override
+              public Entry<String, String> next() {
+                if (next >= to) {
+                  throw new NoSuchElementException();
+                }
+                String key = keys[next++];
+                return new SimpleImmutableEntry<>(key.substring(prefix.length()), m.get(key));
+              }
+
+              @Override
+              public void remove() {
+                throw new UnsupportedOperationException();
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return to - from;
+          }
+        };
+        entries = s;
+      }
+      return s;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.autoconf.base;
+
+/**
+ * 单个value解析出来的各种基本类型数值，按照快照缓存，避免每次读取都重新解析。
+ * 字段都是基本类型，读取时不会产生装箱对象。
+ */
+final class TypedValue {
+  /**
+   * 空字符串在所有类型下都返回默认值
+   */
+  static final TypedValue EMPTY = new TypedValue();
+  final boolean intOk;
+  final int intVal;
+  final boolean longOk;
+  final long longVal;
+  final boolean doubleOk;
+  final double doubleVal;
+  final boolean boolOk;
+  final boolean boolVal;
+
+  private TypedValue() {
+    intOk = longOk = doubleOk = boolOk = false;
+    intVal = 0;
+    longVal = 0L;
+    doubleVal = 0.0;
+    boolVal = false;
+  }
+
+  private TypedValue(String val) {
+    int i = 0;
+    boolean ok = true;
+    try {
+      i = Integer.parseInt(val);
+    } catch (NumberFormatException e) {
+      ok = false;
+    }
+    intOk = ok;
+    intVal = i;
+
+    long l = 0L;
+    ok = true;
+    try {
+      l = Long.parseLong(val);
+    } catch (NumberFormatException e) {
+      ok = false;
+    }
+    longOk = ok;
+    longVal = l;
+
+    double d = 0.0;
+    ok = true;
+    try {
+      d = Double.parseDouble(val);
+    } catch (NumberFormatException e) {
+      ok = false;
+    }
+    doubleOk = ok;
+    doubleVal = d;
+
+    boolOk = true;
+    boolVal = Boolean.parseBoolean(val);
+  }
+
+  static TypedValue parse(String val) {
+    return val.isEmpty() ? EMPTY : new TypedValue(val);
+  }
+}
@@ -0,0 +1,524 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IFormat;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * yaml解析，只支持配置文件常用的子集，不依赖第三方库。
+ * <pre>
+ * 1. 按缩进表示的map和list，list元素可以直接写map
+ * 2. 单行的[a, b]以及{k: v}，括号没有闭合时会拼接后面的行
+ * 3. 单引号、双引号字符串，|和>开头的多行文本，支持-和+结尾
+ * 4. 整数、小数、true/false、null/~会转换成对应类型，其他都是字符串
+ * 5. 不支持锚点、别名、类型标记以及一个文件里的多个文档
+ * </pre>
+ */
+final class YamlFormat implements IFormat {
+  private static final Pattern INT = Pattern.compile("[-+]?(0|[1-9][0-9]*)");
+  private static final Pattern FLOAT = Pattern.compile("[-+]?(0|[1-9][0-9]*)\\.[0-9]+");
+
+  @Override
+  public String getName() {
+    return "yaml";
+  }
+
+  @Override
+  public Object parse(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    List<String> lines = Lists.newArrayList();
+    String line;
+    while ((line = in.readLine()) != null) {
+      lines.add(line);
+    }
+    return new Parser(lines).document();
+  }
+
+  static Object scalar(String s) {
+    if (s.isEmpty() || s.equals("~") || s.equals("null") || s.equals("Null") || s.equals("NULL")) {
+      return null;
+    }
+    if (s.equals("true") || s.equals("True") || s.equals("TRUE")) {
+      return Boolean.TRUE;
+    }
+    if (s.equals("false") || s.equals("False") || s.equals("FALSE")) {
+      return Boolean.FALSE;
+    }
+    try {
+      if (INT.matcher(s).matches()) {
+        return Long.parseLong(s);
+      }
+      if (FLOAT.matcher(s).matches()) {
+        return Double.parseDouble(s);
+      }
+    } catch (NumberFormatException ignored) {
+      //超出范围的数字当作字符串
+    }
+    return s;
+  }
+
+  private static final class Parser {
+    private final List<String> lines;
+    private int pos;
+    private int depth;
+
+    Parser(List<String> lines) {
+      this.lines = lines;
+    }
+
+    Object document() throws IOException {
+      Object root = node(0);
+      if (skip()) {
+        throw error("bad indentation");
+      }
+      return root == null ? Maps.newLinkedHashMap() : root;
+    }
+
+    private Object node(int min) throws IOException {
+      //同一行的"- - - a"也会逐层递归，所以块结构同样限制嵌套层数
+      if (++depth > Formats.MAX_DEPTH) {
+        throw error("nesting deeper than " + Formats.MAX_DEPTH);
+      }
+      try {
+        return nested(min);
+      } finally {
+        depth--;
+      }
+    }
+
+    private Object nested(int min) throws IOException {
+      if (!skip()) {
+        return null;
+      }
+      int ind = indent(lines.get(pos));
+      if (ind < min) {
+        return null;
+      }
+      String c = content(pos);
+      if (isItem(c)) {
+        return list(ind);
+      }
+      if (keyEnd(c) >= 0) {
+        return map(ind);
+      }
+      pos++;
+      return value(c, ind);
+    }
+
+    private List<Object> list(int ind) throws IOException {
+      List<Object> list = Lists.newArrayList();
+      while (skip() && indent(lines.get(pos)) == ind && isItem(content(pos))) {
+        String c = content(pos);
+        int off = 1;
+        while (off < c.length() && c.charAt(off) == ' ') {
+          off++;
+        }
+        String rest = c.substring(off);
+        if (rest.isEmpty()) {
+          pos++;
+          list.add(node(ind + 1));
+        } else if (isItem(rest) || keyEnd(rest) >= 0) {
+          //把"- "换成空格，元素内容当作缩进更深的一行继续解析
+          String raw = lines.get(pos);
+          lines.set(pos, Strings.repeat(" ", ind + off) + raw.substring(ind + off));
+          list.add(node(ind + off));
+        } else {
+          pos++;
+          list.add(value(rest, ind));
+        }
+      }
+      return list;
+    }
+
+    private Map<String, Object> map(int ind) throws IOException {
+      Map<String, Object> m = Maps.newLinkedHashMap();
+      while (skip() && indent(lines.get(pos)) == ind) {
+        String c = content(pos);
+        int k = keyEnd(c);
+        if (isItem(c) || k < 0) {
+          throw error("expect key");
+        }
+        String key = key(c.substring(0, k).trim());
+        String rest = c.substring(k + 1).trim();
+        pos++;
+        Object v;
+        if (!rest.isEmpty()) {
+          v = value(rest, ind);
+        } else if (skip() && indent(lines.get(pos)) == ind && isItem(content(pos))) {
+          v = list(ind);
+        } else {
+          v = node(ind + 1);
+        }
+        m.put(key, v);
+      }
+      return m;
+    }
+
+    private Object value(String text, int ind) throws IOException {
+      char c = text.charAt(0);
+      if (c == '|' || c == '>') {
+        return block(text, ind);
+      }
+      if (c == '[' || c == '{') {
+        StringBuilder sbd = new StringBuilder(text);
+        while (!balanced(sbd) && pos < lines.size()) {
+          sbd.append(' ').append(content(pos));
+          pos++;
+        }
+        Flow f = new Flow(sbd.toString());
+        Object v = f.value();
+        if (f.skipSpace() < f.s.length()) {
+          throw error("bad flow collection");
+        }
+        return v;
+      }
+      if (c == '&' || c == '*' || c == '!') {
+        throw error("anchor, alias and tag are not supported");
+      }
+      if (c == '"' || c == '\'') {
+        Flow f = new Flow(text);
+        String s = f.quoted();
+        if (f.skipSpace() < text.length()) {
+          throw error("bad quoted string");
+        }
+        return s;
+      }
+      return scalar(text);
+    }
+
+    /**
+     * 多行文本，|保留换行，>把相邻的行用空格连接
+     */
+    private String block(String header, int ind) throws IOException {
+      boolean literal = header.charAt(0) == '|';
+      char chomp = header.indexOf('-') > 0 ? '-' : (header.indexOf('+') > 0 ? '+' : ' ');
+      List<String> items = Lists.newArrayList();
+      int blockIndent = -1;
+      while (pos < lines.size()) {
+        String raw = lines.get(pos);
+        if (raw.trim().isEmpty()) {
+          items.add("");
+          pos++;
+          continue;
+        }
+        int n = indent(raw);
+        if (blockIndent < 0) {
+          if (n <= ind) {
+            break;
+          }
+          blockIndent = n;
+        }
+        if (n < blockIndent) {
+          break;
+        }
+        items.add(raw.substring(blockIndent));
+        pos++;
+      }
+      int trailing = 0;
+      while (!items.isEmpty() && items.get(items.size() - 1).isEmpty()) {
+        items.remove(items.size() - 1);
+        trailing++;
+      }
+      StringBuilder sbd = new StringBuilder();
+      for (int i = 0; i < items.size(); i++) {
+        String s = items.get(i);
+        if (i > 0) {
+          //折叠时每个空行变成1个换行，相邻的非空行用空格连接
+          if (literal || s.isEmpty()) {
+            sbd.append('\n');
+          } else if (!items.get(i - 1).isEmpty()) {
+            sbd.append(' ');
+          }
+        }
+        sbd.append(s);
+      }
+      if (items.isEmpty() || chomp == '-') {
+        return sbd.toString();
+      }
+      sbd.append('\n');
+      if (chomp == '+') {
+        sbd.append(Strings.repeat("\n", trailing));
+      }
+      return sbd.toString();
+    }
+
+    /**
+     * 跳过空行、注释以及文档开始标记
+     *
+     * @return 后面是否还有内容
+     */
+    private boolean skip() {
+      while (pos < lines.size()) {
+        String c = content(pos);
+        if (c.isEmpty() || c.equals("---") || (c.startsWith("%") && indent(lines.get(pos)) == 0)) {
+          pos++;
+        } else if (c.equals("...")) {
+          pos = lines.size();
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * 去掉缩进和注释以后的内容
+     */
+    private String content(int i) {
+      String raw = lines.get(i);
+      int start = indent(raw);
+      int end = raw.length();
+      char quote = 0;
+      for (int j = start; j < raw.length(); j++) {
+        char c = raw.charAt(j);
+        if (quote != 0) {
+          if (c == '\\' && quote == '"') {
+            j++;
+          } else if (c == quote) {
+            quote = 0;
+          }
+        } else if (c == '"' || c == '\'') {
+          if (j == start || " [{,:-".indexOf(raw.charAt(j - 1)) >= 0) {
+            quote = c;
+          }
+        } else if (c == '#' && (j == start || raw.charAt(j - 1) == ' ' || raw.charAt(j - 1) == '\t')) {
+          end = j;
+          break;
+        }
+      }
+      return raw.substring(start, end).trim();
+    }
+
+    IOException error(String msg) {
+      return new IOException("yaml " + msg + " at line " + Math.min(pos + 1, lines.size()));
+    }
+  }
+
+  private static int indent(String raw) {
+    int n = 0;
+    while (n < raw.length() && raw.charAt(n) == ' ') {
+      n++;
+    }
+    return n;
+  }
+
+  private static boolean isItem(String c) {
+    return c.equals("-") || c.startsWith("- ");
+  }
+
+  /**
+   * 查找key后面的冒号，冒号后面必须是空格或者行尾
+   *
+   * @return 不是key: value格式返回-1
+   */
+  private static int keyEnd(String c) {
+    if (c.isEmpty() || c.charAt(0) == '[' || c.charAt(0) == '{') {
+      return -1;
+    }
+    int from = 0;
+    char q = c.charAt(0);
+    if (q == '"' || q == '\'') {
+      int close = c.indexOf(q, 1);
+      if (close < 0) {
+        return -1;
+      }
+      from = close + 1;
+    }
+    for (int i = from; i < c.length(); i++) {
+      if (c.charAt(i) == ':' && (i + 1 == c.length() || c.charAt(i + 1) == ' ')) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String key(String s) throws IOException {
+    if (!s.isEmpty() && (s.charAt(0) == '"' || s.charAt(0) == '\'')) {
+      return new Flow(s).quoted();
+    }
+    return s;
+  }
+
+  private static boolean balanced(CharSequence s) {
+    int depth = 0;
+    char quote = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (quote != 0) {
+        if (c == '\\' && quote == '"') {
+          i++;
+        } else if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '[' || c == '{') {
+        depth++;
+      } else if (c == ']' || c == '}') {
+        depth--;
+      }
+    }
+    return depth <= 0;
+  }
+
+  /**
+   * 单行内的[a, b]、{k: v}以及引号字符串
+   */
+  private static final class Flow {
+    private final String s;
+    private int i;
+    private int depth;
+
+    Flow(String s) {
+      this.s = s;
+    }
+
+    Object value() throws IOException {
+      skipSpace();
+      if (i >= s.length()) {
+        return null;
+      }
+      char c = s.charAt(i);
+      if (c == '[') {
+        i++;
+        enter();
+        List<Object> list = Lists.newArrayList();
+        if (skipSpace() < s.length() && s.charAt(i) == ']') {
+          i++;
+          depth--;
+          return list;
+        }
+        while (true) {
+          list.add(value());
+          if (end(']')) {
+            depth--;
+            return list;
+          }
+        }
+      }
+      if (c == '{') {
+        i++;
+        enter();
+        Map<String, Object> m = Maps.newLinkedHashMap();
+        if (skipSpace() < s.length() && s.charAt(i) == '}') {
+          i++;
+          depth--;
+          return m;
+        }
+        while (true) {
+          skipSpace();
+          String key = i < s.length() && (s.charAt(i) == '"' || s.charAt(i) == '\'') ? quoted() : plain(":,}").trim();
+          skipSpace();
+          if (i >= s.length() || s.charAt(i) != ':') {
+            throw new IOException("yaml expect ':' in " + s);
+          }
+          i++;
+          m.put(key, value());
+          if (end('}')) {
+            depth--;
+            return m;
+          }
+        }
+      }
+      if (c == '"' || c == '\'') {
+        return quoted();
+      }
+      return scalar(plain(",]}").trim());
+    }
+
+    private void enter() throws IOException {
+      if (++depth > Formats.MAX_DEPTH) {
+        throw new IOException("yaml flow collection nesting deeper than " + Formats.MAX_DEPTH);
+      }
+    }
+
+    private boolean end(char close) throws IOException {
+      skipSpace();
+      if (i < s.length()) {
+        char c = s.charAt(i++);
+        if (c == close) {
+          return true;
+        }
+        if (c == ',') {
+          return false;
+        }
+      }
+      throw new IOException("yaml expect ',' or '" + close + "' in " + s);
+    }
+
+    private String plain(String stops) {
+      int start = i;
+      while (i < s.length() && stops.indexOf(s.charAt(i)) < 0) {
+        i++;
+      }
+      return s.substring(start, i);
+    }
+
+    String quoted() throws IOException {
+      char q = s.charAt(i++);
+      StringBuilder sbd = new StringBuilder();
+      while (i < s.length()) {
+        char c = s.charAt(i++);
+        if (c == q) {
+          if (q == '\'' && i < s.length() && s.charAt(i) == '\'') {
+            sbd.append('\'');
+            i++;
+            continue;
+          }
+          return sbd.toString();
+        }
+        if (c != '\\' || q == '\'') {
+          sbd.append(c);
+          continue;
+        }
+        if (i >= s.length()) {
+          break;
+        }
+        c = s.charAt(i++);
+        switch (c) {
+          case 'n':
+            sbd.append('\n');
+            break;
+          case 't':
+            sbd.append('\t');
+            break;
+          case 'r':
+            sbd.append('\r');
+            break;
+          case '0':
+            sbd.append('\0');
+            break;
+          case 'u':
+            if (i + 4 > s.length()) {
+              throw new IOException("yaml bad unicode escape in " + s);
+            }
+            try {
+              sbd.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+            } catch (NumberFormatException e) {
+              throw new IOException("yaml bad unicode escape in " + s);
+            }
+            i += 4;
+            break;
+          default:
+            sbd.append(c);
+        }
+      }
+      throw new IOException("yaml unterminated string " + s);
+    }
+
+    int skipSpace() {
+      while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+        i++;
+      }
+      return i;
+    }
+  }
+}
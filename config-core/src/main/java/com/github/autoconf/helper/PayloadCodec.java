@@ -0,0 +1,92 @@
+package com.github.autoconf.helper;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zookeeper节点内容的压缩格式：4字节头 0x00 'Z' 'C' 0x01 后面跟deflate数据。
+ * 文本配置不会以0x00开头，所以压缩和不压缩的节点可以同时存在，客户端先升级，发布端再逐步开启压缩
+ */
+public class PayloadCodec {
+  private static final byte[] MAGIC = {0x00, 'Z', 'C', 0x01};
+  /**
+   * 解压后的最大长度，zookeeper节点默认不超过1MB，按几倍的压缩比留出余量，防止压缩炸弹撑爆内存
+   */
+  static final int MAX_DECODED = 8 << 20;
+
+  private PayloadCodec() {
+  }
+
+  /**
+   * 是否是压缩格式
+   *
+   * @param payload 节点内容
+   * @return 以压缩头开始返回true
+   */
+  public static boolean isEncoded(byte[] payload) {
+    if (payload == null || payload.length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (payload[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 压缩，压缩后没有变小就返回原内容
+   *
+   * @param content 原始内容
+   * @return 压缩格式或者原内容
+   */
+  public static byte[] encode(byte[] content) {
+    if (content == null || content.length == 0) {
+      return content;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + MAGIC.length + 16);
+    out.write(MAGIC, 0, MAGIC.length);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
+      dos.write(content);
+      dos.finish();
+    } catch (IOException e) {
+      throw new IllegalStateException("cannot deflate", e);
+    } finally {
+      deflater.end();
+    }
+    return out.size() < content.length ? out.toByteArray() : content;
+  }
+
+  /**
+   * 解压，不是压缩格式的内容原样返回
+   *
+   * @param payload 节点内容
+   * @return 原始内容
+   * @throws IllegalArgumentException 压缩数据损坏或者解压后超过MAX_DECODED
+   */
+  public static byte[] decode(byte[] payload) {
+    if (!isEncoded(payload)) {
+      return payload;
+    }
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(payload, MAGIC.length, payload.length - MAGIC.length))) {
+      //多读1个字节用来判断是否超限
+      byte[] content = ByteStreams.toByteArray(ByteStreams.limit(in, MAX_DECODED + 1L));
+      if (content.length > MAX_DECODED) {
+        throw new IllegalArgumentException("decompressed payload exceeds " + MAX_DECODED + " bytes");
+      }
+      return content;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("corrupt compressed payload", e);
+    }
+  }
+}
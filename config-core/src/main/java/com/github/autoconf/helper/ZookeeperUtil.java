@@ -145,6 +145,16 @@ public class ZookeeperUtil {
     return null;
   }
 
+  public static byte[] getData(CuratorFramework client, String path, Watcher watcher, Stat stat) {
+    try {
+      return client.getData().storingStatIn(stat).usingWatcher(watcher).forPath(path);
+    } catch (KeeperException.NoNodeException ignored) {
+    } catch (Exception e) {
+      throw new RuntimeException("getData(" + path + ")", e);
+    }
+    return null;
+  }
+
   public static List<String> getChildren(CuratorFramework client, String path) {
     try {
       return client.getChildren().forPath(path);
@@ -165,6 +175,16 @@ public class ZookeeperUtil {
     return null;
   }
 
+  public static List<String> getChildren(CuratorFramework client, String path, Watcher watcher, Stat stat) {
+    try {
+      return client.getChildren().storingStatIn(stat).usingWatcher(watcher).forPath(path);
+    } catch (KeeperException.NoNodeException ignored) {
+    } catch (Exception e) {
+      throw new RuntimeException("getChildren(" + path + ")", e);
+    }
+    return null;
+  }
+
   public static void setData(CuratorFramework client, String path, byte[] payload) {
     try {
       client.setData().forPath(path, payload);
@@ -0,0 +1,182 @@
+package com.github.autoconf.impl;
+
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IChangeableConfig;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.base.ChangeableConfig;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 由其他配置计算出来的配置，比如过滤、前缀改名、本地覆盖、多个配置关联等，组成一个有向无环图。
+ * <pre>
+ * 1. 每个节点声明输入和计算方法，输入可以是普通配置，也可以是图里已经创建的节点，所以创建顺序就是拓扑顺序
+ * 2. 某个输入配置更新时，按拓扑顺序只重新计算输入发生了变化的下游节点
+ * 3. 计算结果和原来一样的节点不算变化，它的下游也不会重新计算
+ * 4. 所有节点都计算完以后才统一通知listener，多条路径汇合的节点每次上游更新只计算1次、通知1次
+ * 5. 计算方法抛出异常时保留原来的内容，当作没有变化
+ * </pre>
+ */
+public class ConfigGraph {
+  private static final Logger LOG = LoggerFactory.getLogger(ConfigGraph.class);
+  /**
+   * 按创建顺序排列，也就是拓扑顺序
+   */
+  private final List<Node> nodes = Lists.newArrayList();
+  private final Set<IConfig> sources = Sets.newIdentityHashSet();
+  private final IChangeListener listener = new IChangeListener() {
+    @Override
+    public void changed(IConfig config) {
+      propagate(config);
+    }
+  };
+
+  /**
+   * 创建计算节点
+   *
+   * @param name      节点名字
+   * @param inputs    输入配置
+   * @param transform 根据输入计算kv内容，输入的顺序和inputs一致
+   * @return 计算出来的配置，可以注册listener，也可以作为其他节点的输入
+   */
+  public IChangeableConfig node(String name, List<? extends IChangeableConfig> inputs, Function<List<IConfig>, Map<String, String>> transform) {
+    Preconditions.checkArgument(!inputs.isEmpty(), "inputs is empty");
+    Node node = new Node(name, ImmutableList.<IConfig>copyOf(inputs), Preconditions.checkNotNull(transform, "transform"));
+    synchronized (this) {
+      for (IChangeableConfig i : inputs) {
+        if (!nodes.contains(i) && sources.add(i)) {
+          i.addListener(listener, false);
+        }
+      }
+      node.compute();
+      nodes.add(node);
+    }
+    node.notifyListeners();
+    return node;
+  }
+
+  /**
+   * 只保留满足条件的key
+   */
+  public IChangeableConfig filter(String name, IChangeableConfig input, final Predicate<String> keys) {
+    return node(name, ImmutableList.of(input), new Function<List<IConfig>, Map<String, String>>() {
+      @Override
+      public Map<String, String> apply(List<IConfig> input) {
+        return Maps.filterKeys(input.get(0).getAll(), keys);
+      }
+    });
+  }
+
+  /**
+   * 把from开头的key改成to开头，其他key不变
+   */
+  public IChangeableConfig rename(String name, IChangeableConfig input, final String from, final String to) {
+    return node(name, ImmutableList.of(input), new Function<List<IConfig>, Map<String, String>>() {
+      @Override
+      public Map<String, String> apply(List<IConfig> input) {
+        Map<String, String> m = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> i : input.get(0).getAll().entrySet()) {
+          String key = i.getKey();
+          m.put(key.startsWith(from) ? to + key.substring(from.length()) : key, i.getValue());
+        }
+        return m;
+      }
+    });
+  }
+
+  /**
+   * 多个配置叠加，同名配置排在前面的优先，比如本地覆盖放在第1个
+   */
+  public IChangeableConfig overlay(String name, List<? extends IChangeableConfig> inputs) {
+    return node(name, inputs, new Function<List<IConfig>, Map<String, String>>() {
+      @Override
+      public Map<String, String> apply(List<IConfig> input) {
+        Map<String, String> m = Maps.newLinkedHashMap();
+        for (IConfig c : input) {
+          for (Map.Entry<String, String> i : c.getAll().entrySet()) {
+            if (!m.containsKey(i.getKey())) {
+              m.put(i.getKey(), i.getValue());
+            }
+          }
+        }
+        return m;
+      }
+    });
+  }
+
+  private void propagate(IConfig source) {
+    List<Node> changed = Lists.newArrayList();
+    synchronized (this) {
+      Set<IConfig> dirty = Sets.newIdentityHashSet();
+      dirty.add(source);
+      for (Node n : nodes) {
+        if (n.dependsOn(dirty) && n.compute()) {
+          dirty.add(n);
+          changed.add(n);
+        }
+      }
+    }
+    for (Node n : changed) {
+      n.notifyListeners();
+    }
+  }
+
+  /**
+   * 图中的计算节点
+   */
+  private static final class Node extends ChangeableConfig {
+    private final List<IConfig> inputs;
+    private final Function<List<IConfig>, Map<String, String>> transform;
+
+    Node(String name, List<IConfig> inputs, Function<List<IConfig>, Map<String, String>> transform) {
+      super(name);
+      this.inputs = inputs;
+      this.transform = transform;
+    }
+
+    boolean dependsOn(Set<IConfig> dirty) {
+      for (IConfig i : inputs) {
+        if (dirty.contains(i)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * 重新计算
+     *
+     * @return 内容变化返回true
+     */
+    boolean compute() {
+      Map<String, String> m;
+      try {
+        m = transform.apply(inputs);
+      } catch (Exception e) {
+        LOG.error("cannot compute {}", getName(), e);
+        return false;
+      }
+      if (m == null || m.equals(getAll())) {
+        return false;
+      }
+      copyOf(m);
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "ConfigGraph.Node{" + "name=" + getName() + '}';
+    }
+  }
+}
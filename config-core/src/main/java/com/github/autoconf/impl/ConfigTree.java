@@ -0,0 +1,156 @@
+package com.github.autoconf.impl;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一个zookeeper连接上所有配置共享的TreeCache，缓存根目录下的全部节点。
+ * <pre>
+ * 1. 每个节点只有TreeCache的1个watcher，watcher数量和配置数量无关
+ * 2. 配置从本地内存读取，创建配置不需要再访问zookeeper
+ * 3. 节点变化时只通知对应路径下的配置，配置再从本地内存按优先级重新取值
+ * </pre>
+ */
+public class ConfigTree implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ConfigTree.class);
+  private final String root;
+  private final CuratorFramework client;
+  private final TreeCache cache;
+  /**
+   * 配置路径到配置的映射，不同工厂可能创建同一个路径的配置
+   */
+  private final ConcurrentMap<String, Set<RemoteConfig>> configs = Maps.newConcurrentMap();
+  private final CountDownLatch initialized = new CountDownLatch(1);
+  private final TreeCacheListener listener = new TreeCacheListener() {
+    @Override
+    public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+      switch (event.getType()) {
+        case NODE_ADDED:
+        case NODE_UPDATED:
+        case NODE_REMOVED:
+          //初始化过程中每个节点都会触发NODE_ADDED，等初始化完成再统一刷新
+          if (initialized.getCount() == 0) {
+            String p = event.getData().getPath();
+            changed(p);
+            changed(ZKPaths.getPathAndNode(p).getPath());
+          }
+          break;
+        case INITIALIZED:
+          initialized.countDown();
+          LOG.info("tree cache initialized, root:{}", root);
+          for (Set<RemoteConfig> i : configs.values()) {
+            for (RemoteConfig c : i) {
+              c.changed();
+            }
+          }
+          break;
+        default:
+          LOG.info("{}, root:{}", event.getType(), root);
+      }
+    }
+  };
+
+  public ConfigTree(CuratorFramework client, String root) {
+    this.root = root;
+    this.client = client;
+    this.cache = new TreeCache(client, root);
+    cache.getListenable().addListener(listener);
+  }
+
+  /**
+   * 启动并等待第1次加载完成，超时以后仍然在后台继续加载，完成时会刷新已经注册的配置
+   *
+   * @param timeout 最长等待时间
+   * @param unit    时间单位
+   * @return 加载完成返回true
+   * @throws Exception 启动失败
+   */
+  public boolean start(long timeout, TimeUnit unit) throws Exception {
+    cache.start();
+    boolean done = initialized.await(timeout, unit);
+    if (!done) {
+      LOG.warn("tree cache not initialized in {} {}, root:{}", timeout, unit, root);
+    }
+    return done;
+  }
+
+  public boolean isInitialized() {
+    return initialized.getCount() == 0;
+  }
+
+  public String getRoot() {
+    return root;
+  }
+
+  public CuratorFramework getClient() {
+    return client;
+  }
+
+  void register(RemoteConfig config) {
+    Set<RemoteConfig> s = configs.get(config.getPath());
+    if (s == null) {
+      Set<RemoteConfig> created = Sets.newCopyOnWriteArraySet();
+      s = configs.putIfAbsent(config.getPath(), created);
+      if (s == null) {
+        s = created;
+      }
+    }
+    s.add(config);
+  }
+
+  /**
+   * 从本地缓存按优先级查找配置内容
+   *
+   * @param path  配置路径
+   * @param paths 子节点优先顺序
+   * @return 找不到返回长度为0的数组
+   */
+  byte[] load(String path, List<String> paths) {
+    Map<String, ChildData> children = cache.getCurrentChildren(path);
+    if (children != null) {
+      for (String i : paths) {
+        ChildData d = children.get(i);
+        if (d != null && d.getData() != null && d.getData().length > 0) {
+          LOG.info("path:{}, child:{}", path, i);
+          return d.getData();
+        }
+      }
+    }
+    return new byte[0];
+  }
+
+  private void changed(String path) {
+    Set<RemoteConfig> s = configs.get(path);
+    if (s != null) {
+      for (RemoteConfig c : s) {
+        c.changed();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    cache.close();
+  }
+
+  @Override
+  public String toString() {
+    return "ConfigTree{" + "root=" + root + '}';
+  }
+}
@@ -1,69 +1,229 @@
 package com.github.autoconf.impl;
 
-import com.github.autoconf.api.IChangeListener;
 import com.github.autoconf.api.IChangeableConfig;
 import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
 import com.github.autoconf.base.ChangeableConfig;
+import com.github.autoconf.base.ConfigDiff;
+import com.github.autoconf.base.Snapshot;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
-import java.util.Collections;
+import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 合并多个配置文件的内容为一个，同名配置，排在前面的优先。
  * <pre>
  * 1. 仅支持kv类型的合并
  * 2. 仅支持UTF8编码
+ * 3. 某一层更新时只根据这一层变化的key重新计算生效值，其他key不重新合并
+ * 4. 变化的key被优先级更高的层覆盖、生效值没有变化的时候，不更新也不通知
+ * 5. 合并结果的顺序是确定的: 按优先级从高到低排列各层的key，之后新增的key排在最后
+ * 6. 查找链模式不复制合并结果，get按优先级依次查找各层的快照，getAll第1次调用时才生成合并结果并缓存
  * </pre>
  * Created by lirui on 15/9/24.
  */
 public class MergedConfig extends ChangeableConfig implements IChangeableConfig {
+  /**
+   * 按优先级从高到低排列
+   */
   private final List<IChangeableConfig> configs;
+  private final boolean lookup;
+  private final Object mergeLock = new Object();
 
   public MergedConfig(List<IChangeableConfig> configs) {
+    this(configs, false);
+  }
+
+  /**
+   * @param configs 按优先级从高到低排列的配置
+   * @param lookup  是否使用查找链模式，多查找几次换取不复制合并结果，适合层数少而公共配置很大的场景
+   */
+  public MergedConfig(List<IChangeableConfig> configs, boolean lookup) {
     super(Joiner.on(',').join(Collections2.transform(configs, new Function<IChangeableConfig, String>() {
       @Override
       public String apply(IChangeableConfig input) {
         return input.getName();
       }
     })));
+    this.configs = ImmutableList.copyOf(configs);
+    this.lookup = lookup;
 
-    IChangeListener listener = new IChangeListener() {
+    // 注册单个配置文件的更新回调功能，只关心变化了哪些key
+    IDiffListener listener = new IDiffListener() {
       @Override
-      public void changed(IConfig config) {
-        merge();
+      public void changed(IConfig config, IConfigDiff diff) {
+        update(diff.getKeys());
       }
     };
-
-    // 注册单个配置文件的更新回调功能
     for (IChangeableConfig c : configs) {
-      c.addListener(listener, false);
+      c.addDiffListener(listener, false);
     }
 
-    // 同名配置，排在前面的优先，所以按照做一次排序反转
-    this.configs = Lists.newArrayList(configs);
-    Collections.reverse(this.configs);
-
     // 首次merge配置
     merge();
   }
 
+  public boolean isLookup() {
+    return lookup;
+  }
+
   private void merge() {
-    Map<String, String> m = Maps.newHashMap();
-    for (IChangeableConfig c : this.configs) {
-      m.putAll(c.getAll());
+    synchronized (mergeLock) {
+      if (lookup) {
+        install(Snapshot.wrap(new ChainMap(layers())));
+        notifyListeners();
+        return;
+      }
+      Map<String, String> m = Maps.newLinkedHashMap();
+      for (IChangeableConfig c : configs) {
+        for (Map.Entry<String, String> i : c.getAll().entrySet()) {
+          if (!m.containsKey(i.getKey())) {
+            m.put(i.getKey(), i.getValue());
+          }
+        }
+      }
+      copyOf(m);
     }
-    copyOf(m);
     notifyListeners();
   }
 
+  /**
+   * 只重新计算变化的key，生效值都没变的时候不更新
+   *
+   * @param keys 某一层变化的key
+   */
+  private void update(Set<String> keys) {
+    IConfigDiff diff;
+    synchronized (mergeLock) {
+      List<Map<String, String>> layers = layers();
+      long version = getVersion();
+      Map<String, String> current = getAll();
+      Map<String, String> changes = Maps.newLinkedHashMap();
+      for (String key : keys) {
+        String value = lookup(layers, key);
+        if (!Objects.equal(value, current.get(key))) {
+          changes.put(key, value);
+        }
+      }
+      if (lookup) {
+        //生效值没变也要换成新的查找链，否则会一直引用各层的旧快照。内容相同所以沿用版本号
+        ChainMap chain = new ChainMap(layers);
+        install(changes.isEmpty() ? Snapshot.wrap(chain, getVersion()) : Snapshot.wrap(chain));
+      }
+      if (changes.isEmpty()) {
+        return;
+      }
+      if (!lookup) {
+        copyOf(merged(current, changes));
+      }
+      //变化的key已经算出来了，直接生成差异，查找链模式不必为了对比而生成完整的合并结果
+      diff = ConfigDiff.of(current, changes, version, getVersion());
+    }
+    notifyListeners(diff);
+  }
+
+  /**
+   * 在原来的合并结果上应用变化，保持原有key的顺序，新增的key排在最后
+   */
+  private static Map<String, String> merged(Map<String, String> current, Map<String, String> changes) {
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (Map.Entry<String, String> i : current.entrySet()) {
+      if (!changes.containsKey(i.getKey())) {
+        builder.put(i);
+      } else if (changes.get(i.getKey()) != null) {
+        builder.put(i.getKey(), changes.get(i.getKey()));
+      }
+    }
+    for (Map.Entry<String, String> i : changes.entrySet()) {
+      if (i.getValue() != null && !current.containsKey(i.getKey())) {
+        builder.put(i);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * 各层当前的kv内容，同一次计算中每层只取1次，避免读到同一层的不同版本
+   */
+  private List<Map<String, String>> layers() {
+    ImmutableList.Builder<Map<String, String>> builder = ImmutableList.builder();
+    for (IChangeableConfig c : configs) {
+      builder.add(c.getAll());
+    }
+    return builder.build();
+  }
+
+  private static String lookup(List<Map<String, String>> layers, String key) {
+    for (Map<String, String> m : layers) {
+      String value = m.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
   @Override
   public String toString() {
-    return "MergedConfig{" + "name=" + getName() + '}';
+    return "MergedConfig{" + "name=" + getName() + ", lookup=" + lookup + '}';
+  }
+
+  /**
+   * 查找链，按优先级依次查找各层的kv内容，完整的合并结果在需要遍历的时候才生成
+   */
+  private static final class ChainMap extends AbstractMap<String, String> {
+    private final List<Map<String, String>> layers;
+    private volatile Map<String, String> merged;
+
+    ChainMap(List<Map<String, String>> layers) {
+      this.layers = layers;
+    }
+
+    @Override
+    public String get(Object key) {
+      return key instanceof String ? lookup(layers, (String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return merged().size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return merged().entrySet();
+    }
+
+    private Map<String, String> merged() {
+      Map<String, String> m = merged;
+      if (m == null) {
+        Map<String, String> items = Maps.newLinkedHashMap();
+        for (Map<String, String> layer : layers) {
+          for (Map.Entry<String, String> i : layer.entrySet()) {
+            if (!items.containsKey(i.getKey())) {
+              items.put(i.getKey(), i.getValue());
+            }
+          }
+        }
+        m = ImmutableMap.copyOf(items);
+        merged = m;
+      }
+      return m;
+    }
   }
 }
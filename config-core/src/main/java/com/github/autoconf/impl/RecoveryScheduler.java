@@ -0,0 +1,233 @@
+package com.github.autoconf.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重连以后恢复配置的调度器，整个进程共用1个。
+ * <pre>
+ * 1. zookeeper选主完成时所有客户端同时收到RECONNECTED，每个配置的恢复任务在jitter窗口内随机延迟执行，把读请求打散
+ * 2. 同一个zookeeper连接同时执行的恢复任务不超过maxInFlight个
+ * 3. 有listener的配置优先：只在窗口的前1/4内随机延迟，等待执行时也排在前面
+ * 4. 从1个连接提交第1个任务到所有任务执行完记为1次恢复，记录恢复耗时
+ * </pre>
+ */
+public class RecoveryScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(RecoveryScheduler.class);
+  private final long jitterMillis;
+  private final int maxInFlight;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ConfigRecoveryTimer").setDaemon(true).build());
+  private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ConfigRecovery-%d").setDaemon(true).build());
+  /**
+   * 正在恢复的连接，恢复完成后删除
+   */
+  private final Map<CuratorFramework, Lane> lanes = Maps.newHashMap();
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong executed = new AtomicLong();
+  private final AtomicLong recoveries = new AtomicLong();
+  private final AtomicLong lastRecoveryMillis = new AtomicLong();
+  private final AtomicLong maxRecoveryMillis = new AtomicLong();
+  private long sequence;
+
+  /**
+   * @param jitterMillis 随机延迟的窗口，0表示马上执行
+   * @param maxInFlight  每个连接同时执行的最大任务数
+   */
+  public RecoveryScheduler(long jitterMillis, int maxInFlight) {
+    Preconditions.checkArgument(jitterMillis >= 0, "jitterMillis must not be negative");
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+    this.jitterMillis = jitterMillis;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * 默认实例，可以通过系统属性 autoconf.recoveryJitterMillis 和 autoconf.recoveryConcurrency 设置
+   */
+  public static RecoveryScheduler getInstance() {
+    return LazyHolder.instance;
+  }
+
+  public long getJitterMillis() {
+    return jitterMillis;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * 提交恢复任务
+   *
+   * @param client   任务使用的zookeeper连接
+   * @param task     恢复任务
+   * @param priority 是否优先执行，比如有listener的配置
+   */
+  public void submit(CuratorFramework client, Runnable task, boolean priority) {
+    Preconditions.checkNotNull(task, "task");
+    final Lane lane;
+    final Task t;
+    synchronized (this) {
+      Lane l = lanes.get(client);
+      if (l == null) {
+        l = new Lane(client);
+        lanes.put(client, l);
+      }
+      l.outstanding++;
+      lane = l;
+      t = new Task(task, priority, sequence++);
+    }
+    submitted.incrementAndGet();
+    long window = priority ? jitterMillis / 4 : jitterMillis;
+    long delay = window > 0 ? ThreadLocalRandom.current().nextLong(window) : 0;
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        ready(lane, t);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 已经提交的任务数
+   */
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  /**
+   * 已经执行完的任务数
+   */
+  public long getExecuted() {
+    return executed.get();
+  }
+
+  /**
+   * 完成的恢复次数
+   */
+  public long getRecoveries() {
+    return recoveries.get();
+  }
+
+  /**
+   * 最近1次恢复的耗时
+   */
+  public long getLastRecoveryMillis() {
+    return lastRecoveryMillis.get();
+  }
+
+  /**
+   * 恢复耗时的最大值
+   */
+  public long getMaxRecoveryMillis() {
+    return maxRecoveryMillis.get();
+  }
+
+  /**
+   * 正在恢复的连接数
+   */
+  public synchronized int getRecovering() {
+    return lanes.size();
+  }
+
+  private synchronized void ready(Lane lane, Task t) {
+    lane.queue.add(t);
+    drain(lane);
+  }
+
+  private void drain(final Lane lane) {
+    while (lane.inFlight < maxInFlight && !lane.queue.isEmpty()) {
+      final Task t = lane.queue.poll();
+      lane.inFlight++;
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            t.task.run();
+          } catch (Exception e) {
+            LOG.error("cannot recover {}", t.task, e);
+          } finally {
+            finished(lane);
+          }
+        }
+      });
+    }
+  }
+
+  private void finished(Lane lane) {
+    executed.incrementAndGet();
+    long millis = -1;
+    synchronized (this) {
+      lane.inFlight--;
+      if (--lane.outstanding == 0) {
+        lanes.remove(lane.client);
+        millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lane.startedAt);
+      } else {
+        drain(lane);
+      }
+    }
+    if (millis >= 0) {
+      recoveries.incrementAndGet();
+      lastRecoveryMillis.set(millis);
+      long max;
+      do {
+        max = maxRecoveryMillis.get();
+      } while (millis > max && !maxRecoveryMillis.compareAndSet(max, millis));
+      LOG.info("recovered in {}ms, client:{}", millis, lane.client);
+    }
+  }
+
+  /**
+   * 1个连接的恢复状态
+   */
+  private static final class Lane {
+    private final CuratorFramework client;
+    private final long startedAt = System.nanoTime();
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    /**
+     * 提交了还没执行完的任务数
+     */
+    private int outstanding;
+    private int inFlight;
+
+    Lane(CuratorFramework client) {
+      this.client = client;
+    }
+  }
+
+  private static final class Task implements Comparable<Task> {
+    private final Runnable task;
+    private final boolean priority;
+    private final long sequence;
+
+    Task(Runnable task, boolean priority, long sequence) {
+      this.task = task;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Task o) {
+      if (priority != o.priority) {
+        return priority ? -1 : 1;
+      }
+      return Long.compare(sequence, o.sequence);
+    }
+  }
+
+  private static class LazyHolder {
+    private static final RecoveryScheduler instance = new RecoveryScheduler(Long.getLong("autoconf.recoveryJitterMillis", 5000L), Integer.getInteger("autoconf.recoveryConcurrency", 4));
+  }
+}
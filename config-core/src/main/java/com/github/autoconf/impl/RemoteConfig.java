@@ -1,22 +1,39 @@
 package com.github.autoconf.impl;
 
 import com.github.autoconf.base.ChangeableConfig;
+import com.github.autoconf.base.Debouncer;
+import com.github.autoconf.helper.PayloadCodec;
 import com.github.autoconf.helper.ZookeeperUtil;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * 基于远程zookeeper文件的配置
+ * 基于远程zookeeper文件的配置。
+ * 设置合并窗口以后，短时间内连续的变更通知只从zookeeper加载1次，并且只通知1次listener。
+ * 加载时记录读取过的节点版本，重连以后只检查版本，有变化才重新加载。
+ * 合并窗口线程、zookeeper事件线程和重连恢复线程都可能触发加载，同一个配置的加载依次进行
  * Created by lirui on 2015/9/28.
  */
 public class RemoteConfig extends ChangeableConfig {
@@ -31,11 +48,11 @@ public class RemoteConfig extends ChangeableConfig {
       switch (t) {
         case NodeCreated:
         case NodeChildrenChanged:
-          loadFromZookeeper();
+          changed();
           break;
         case NodeDeleted:
           client.clearWatcherReferences(this);
-          loadFromZookeeper();
+          changed();
           break;
         default:
           LOG.warn("skip {}, {}", t, p);
@@ -49,11 +66,11 @@ public class RemoteConfig extends ChangeableConfig {
       String p = event.getPath();
       switch (t) {
         case NodeDataChanged:
-          loadFromZookeeper();
+          changed();
           break;
         case NodeDeleted:
           client.clearWatcherReferences(this);
-          loadFromZookeeper();
+          changed();
           break;
         default:
           LOG.warn("skip {}, {}", t, p);
@@ -63,10 +80,41 @@ public class RemoteConfig extends ChangeableConfig {
   private final ConnectionStateListener stateListener = new ConnectionStateListener() {
     public void stateChanged(CuratorFramework client, ConnectionState newState) {
       if (newState.equals(ConnectionState.RECONNECTED)) {
-        initZookeeper();
+        //所有客户端同时重连，由调度器打散并限制并发，有listener的配置优先恢复
+        RecoveryScheduler.getInstance().submit(client, new Runnable() {
+          @Override
+          public void run() {
+            resync();
+          }
+
+          @Override
+          public String toString() {
+            return getName();
+          }
+        }, hasListeners());
       }
     }
   };
+  private final AtomicBoolean listening = new AtomicBoolean(false);
+  /**
+   * 最后一次加载时读取过的节点版本，配置根路径记录子节点列表的pzxid，子节点记录mzxid，节点不存在记为-1
+   */
+  private volatile Map<String, Long> seen = ImmutableMap.of();
+  /**
+   * 同步加载在锁内读取和安装，异步加载只在安装时持有锁，listener都在释放锁以后通知
+   */
+  private final Object loadLock = new Object();
+  /**
+   * 开始加载的序号，异步加载返回时如果更晚开始的加载已经生效，说明读到的内容已经过期
+   */
+  private long loadStarted;
+  private long loadApplied;
+  /**
+   * 锁内安装了新内容，还没有通知listener
+   */
+  private boolean unnotified;
+
+  private volatile Debouncer debouncer;
 
   public RemoteConfig(String name, String path, List<String> paths, CuratorFramework client) {
     super(name);
@@ -75,15 +123,61 @@ public class RemoteConfig extends ChangeableConfig {
     this.client = client;
   }
 
+  /**
+   * 设置变更通知的合并窗口，窗口内的多次变更只加载1次最新版本
+   *
+   * @param windowMillis   合并窗口，0表示每次变更都马上加载
+   * @param maxDelayMillis 从第1次变更开始的最大等待时间，保证持续变更时也能及时加载
+   */
+  public void setCoalescing(long windowMillis, long maxDelayMillis) {
+    if (windowMillis <= 0) {
+      debouncer = null;
+      return;
+    }
+    debouncer = new Debouncer(getName(), new Runnable() {
+      @Override
+      public void run() {
+        loadFromZookeeper();
+      }
+    }, windowMillis, Math.max(windowMillis, maxDelayMillis));
+  }
+
+  public Debouncer getDebouncer() {
+    return debouncer;
+  }
+
+  protected void changed() {
+    Debouncer d = debouncer;
+    if (d == null) {
+      loadFromZookeeper();
+    } else {
+      d.trigger();
+    }
+  }
+
+  /**
+   * 连接状态listener只注册1次，避免每次重连都多注册1个
+   */
+  private void listen() {
+    if (listening.compareAndSet(false, true)) {
+      client.getConnectionStateListenable().addListener(stateListener);
+    }
+  }
+
   protected void initZookeeper() {
     try {
-      client.getConnectionStateListenable().addListener(stateListener);
+      listen();
       if (!client.getZookeeperClient().isConnected()) {
         client.blockUntilConnected(10, TimeUnit.SECONDS);
       }
-      if (ZookeeperUtil.exists(client, path, baseWatcher) != null) {
-        loadFromZookeeper();
+      synchronized (loadLock) {
+        if (ZookeeperUtil.exists(client, path, baseWatcher) != null) {
+          loadFromZookeeper();
+        } else {
+          apply(++loadStarted, ImmutableMap.of(path, -1L), null);
+        }
       }
+      notifyInstalled();
     } catch (InterruptedException e) {
       LOG.error("cannot init '{}', path:{}", getName(), path, e);
     }
@@ -93,10 +187,145 @@ public class RemoteConfig extends ChangeableConfig {
     initZookeeper();
   }
 
+  /**
+   * 异步加载，zookeeper请求都通过后台回调发出，不等待返回。
+   * 先取子节点列表，收到以后同时读取所有候选路径，按优先级依次确定结果：
+   * 优先级高的路径返回了内容就马上使用，不用等待优先级低的路径。
+   * 和同步加载一样，只在找到内容的路径以及优先级更高的空路径上注册watcher。
+   * 返回期间其他线程可能已经完成了更晚开始的同步加载，这时丢弃异步读到的旧内容
+   *
+   * @return 加载完成时返回true，zookeeper出错返回false，可以再调用start同步加载
+   */
+  public ListenableFuture<Boolean> startAsync() {
+    final SettableFuture<Boolean> future = SettableFuture.create();
+    final long started;
+    synchronized (loadLock) {
+      started = ++loadStarted;
+    }
+    listen();
+    try {
+      client.getChildren().usingWatcher(baseWatcher).inBackground(new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+          onChildren(started, event, future);
+        }
+      }).forPath(path);
+    } catch (Exception e) {
+      LOG.error("cannot load {} from zookeeper, path:{}", getName(), path, e);
+      future.set(false);
+    }
+    return future;
+  }
+
+  /**
+   * 后台回调里抛出的异常curator只会记日志，这里兜住异常结束future，避免等待加载结果的调用方一直阻塞
+   */
+  private void onChildren(long started, CuratorEvent event, SettableFuture<Boolean> future) {
+    try {
+      loadChildren(started, event, future);
+    } catch (Exception e) {
+      LOG.error("cannot load {} from zookeeper, path:{}", getName(), path, e);
+      future.set(false);
+    }
+  }
+
+  private void loadChildren(long started, CuratorEvent event, SettableFuture<Boolean> future) throws Exception {
+    KeeperException.Code rc = KeeperException.Code.get(event.getResultCode());
+    if (rc == KeeperException.Code.NONODE) {
+      //和initZookeeper一样，节点不存在时只监听创建
+      client.checkExists().usingWatcher(baseWatcher).inBackground().forPath(path);
+      apply(started, ImmutableMap.of(path, -1L), null);
+      future.set(true);
+      return;
+    }
+    if (rc != KeeperException.Code.OK) {
+      LOG.error("cannot load {} from zookeeper, path:{}, code:{}", getName(), path, rc);
+      future.set(false);
+      return;
+    }
+    List<String> children = event.getChildren();
+    LOG.info("path:{}, children:{}", path, children);
+    List<String> candidates = Lists.newArrayList();
+    for (String i : paths) {
+      if (children.contains(i)) {
+        candidates.add(ZKPaths.makePath(path, i));
+      }
+    }
+    final Replies replies = new Replies(started, event.getStat().getPzxid(), candidates, future);
+    if (candidates.isEmpty()) {
+      replies.resolve();
+      return;
+    }
+    for (int i = 0; i < candidates.size(); i++) {
+      final int index = i;
+      client.getData().inBackground(new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+          if (KeeperException.Code.get(event.getResultCode()) == KeeperException.Code.OK) {
+            replies.arrived(index, event.getData(), event.getStat().getMzxid());
+          } else {
+            replies.arrived(index, null, -1L);
+          }
+        }
+      }).forPath(candidates.get(i));
+    }
+  }
+
+  /**
+   * 异步加载确定结果以后，在用到的子节点上注册watcher。读取时没有注册，
+   * 所以注册时发现版本和读取时不同，说明中间发生了变化，需要重新加载
+   *
+   * @param versions 读取过的节点版本
+   */
+  private void watchLeaves(Map<String, Long> versions) {
+    for (Map.Entry<String, Long> i : versions.entrySet()) {
+      if (i.getKey().equals(path)) {
+        continue;
+      }
+      final long version = i.getValue();
+      try {
+        client.checkExists().usingWatcher(leafWatcher).inBackground(new BackgroundCallback() {
+          @Override
+          public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+            Stat stat = event.getStat();
+            if ((stat != null ? stat.getMzxid() : -1L) != version) {
+              LOG.info("{} changed while loading, path:{}", getName(), event.getPath());
+              changed();
+            }
+          }
+        }).forPath(i.getKey());
+      } catch (Exception e) {
+        LOG.error("cannot watch {}, path:{}", getName(), i.getKey(), e);
+      }
+    }
+  }
+
   protected void loadFromZookeeper() {
+    synchronized (loadLock) {
+      load(++loadStarted);
+    }
+    notifyInstalled();
+  }
+
+  /**
+   * 不需要访问zookeeper的加载(比如从共享TreeCache读取)也和其他加载一样在锁内读取和安装，释放锁以后通知listener
+   *
+   * @param source 在加载锁内读取节点内容
+   */
+  protected void loadFrom(Supplier<byte[]> source) {
+    synchronized (loadLock) {
+      apply(++loadStarted, ImmutableMap.<String, Long>of(), source.get());
+    }
+    notifyInstalled();
+  }
+
+  private void load(long started) {
     LOG.info("{}, path:{}, order:{}", getName(), path, paths);
-    List<String> children = ZookeeperUtil.getChildren(client, path, baseWatcher);
-    boolean found = false;
+    Map<String, Long> versions = Maps.newLinkedHashMap();
+    Stat stat = new Stat();
+    List<String> children = ZookeeperUtil.getChildren(client, path, baseWatcher, stat);
+    versions.put(path, children != null ? stat.getPzxid() : -1L);
+    byte[] found = null;
     //按照特定顺序逐个查找配置
     if (children != null && children.size() > 0) {
       LOG.info("path:{}, children:{}", path, children);
@@ -105,11 +334,12 @@ public class RemoteConfig extends ChangeableConfig {
           continue;
         String p = ZKPaths.makePath(path, i);
         try {
-          byte[] content = ZookeeperUtil.getData(client, p, leafWatcher);
+          Stat leaf = new Stat();
+          byte[] content = ZookeeperUtil.getData(client, p, leafWatcher, leaf);
+          versions.put(p, content != null ? leaf.getMzxid() : -1L);
           if (content != null && content.length > 0) {
             LOG.info("{}, path:{}", getName(), p);
-            reload(content);
-            found = true;
+            found = content;
             break;
           }
         } catch (Exception e) {
@@ -117,18 +347,143 @@ public class RemoteConfig extends ChangeableConfig {
         }
       }
     }
-    if (!found) {
+    if (found == null) {
       ZookeeperUtil.exists(client, path, baseWatcher);
       LOG.warn("cannot find {} in zookeeper, path{}", getName(), path);
-      reload(new byte[0]);
+      found = new byte[0];
+    }
+    apply(started, versions, found);
+  }
+
+  /**
+   * 安装1次加载的结果，比已经生效的加载开始得更早的结果直接丢弃
+   *
+   * @param started  加载开始的序号
+   * @param versions 读取过的节点版本
+   * @param payload  节点内容，为null表示只更新节点版本
+   * @return 丢弃返回false
+   */
+  private boolean apply(long started, Map<String, Long> versions, byte[] payload) {
+    synchronized (loadLock) {
+      if (started < loadApplied) {
+        LOG.info("{} skip stale load, path:{}", getName(), path);
+        return false;
+      }
+      loadApplied = started;
+      seen = ImmutableMap.copyOf(versions);
+      if (payload != null && reload(payload)) {
+        unnotified = true;
+      }
+    }
+    notifyInstalled();
+    return true;
+  }
+
+  /**
+   * 释放加载锁以后再通知listener，慢的listener不会挡住zookeeper事件线程上的其他加载。
+   * 还在外层加载的锁内时不通知，由外层加载结束时通知
+   */
+  private void notifyInstalled() {
+    if (Thread.holdsLock(loadLock)) {
+      return;
+    }
+    synchronized (loadLock) {
+      if (!unnotified) {
+        return;
+      }
+      unnotified = false;
+    }
+    notifyListeners();
+  }
+
+  /**
+   * 重连以后按上次加载时读取过的节点逐个检查版本，同时重新注册watcher(会话过期以后原来的watcher已经失效)。
+   * 只有版本发生变化时才重新加载1次，不再读取配置内容
+   *
+   * @return 重新加载返回true
+   */
+  protected boolean resync() {
+    if (seen.isEmpty()) {
+      //还没有加载过，在加载锁外等待连接
+      initZookeeper();
+      return true;
+    }
+    boolean reloaded;
+    synchronized (loadLock) {
+      reloaded = resyncLocked();
+    }
+    notifyInstalled();
+    return reloaded;
+  }
+
+  private boolean resyncLocked() {
+    Map<String, Long> last = seen;
+    if (last.isEmpty()) {
+      loadFromZookeeper();
+      return true;
+    }
+    for (Map.Entry<String, Long> i : last.entrySet()) {
+      String p = i.getKey();
+      long version;
+      if (p.equals(path)) {
+        Stat stat = new Stat();
+        if (i.getValue() < 0) {
+          stat = ZookeeperUtil.exists(client, path, baseWatcher);
+          version = stat != null ? stat.getPzxid() : -1L;
+        } else {
+          version = ZookeeperUtil.getChildren(client, path, baseWatcher, stat) != null ? stat.getPzxid() : -1L;
+        }
+      } else {
+        Stat stat = ZookeeperUtil.exists(client, p, leafWatcher);
+        version = stat != null ? stat.getMzxid() : -1L;
+      }
+      if (version != i.getValue()) {
+        LOG.info("{} changed while disconnected, path:{}", getName(), p);
+        loadFromZookeeper();
+        return true;
+      }
     }
+    LOG.info("{} not changed while disconnected, path:{}", getName(), path);
+    return false;
+  }
+
+  /**
+   * 最后一次加载时读取过的节点版本
+   *
+   * @return 路径到版本的映射
+   */
+  public Map<String, Long> getSeen() {
+    return seen;
   }
 
-  protected void reload(byte[] content) {
+  /**
+   * 在加载锁内安装新内容，不通知listener
+   *
+   * @param payload 节点内容
+   * @return 安装了新内容返回true，由调用方在释放加载锁以后通知listener
+   */
+  protected boolean reload(byte[] payload) {
+    byte[] content = decode(payload);
     //只有真正发生变化的时候才触发重新加载
-    if (isChanged(content)) {
+    if (content != null && isChanged(content)) {
       copyOf(content);
-      notifyListeners();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 解压zookeeper节点内容，不是压缩格式的原样返回
+   *
+   * @param payload 节点内容
+   * @return 解压后的内容，压缩数据损坏返回null
+   */
+  protected byte[] decode(byte[] payload) {
+    try {
+      return PayloadCodec.decode(payload);
+    } catch (IllegalArgumentException e) {
+      LOG.error("cannot decode {}, path:{}", getName(), path, e);
+      return null;
     }
   }
 
@@ -136,6 +491,76 @@ public class RemoteConfig extends ChangeableConfig {
     return path;
   }
 
+  public List<String> getPaths() {
+    return paths;
+  }
+
+  /**
+   * 异步加载时按优先级排列的候选路径返回结果
+   */
+  private final class Replies {
+    private final long started;
+    private final long pzxid;
+    private final List<String> candidates;
+    private final byte[][] contents;
+    private final long[] versions;
+    private final boolean[] arrived;
+    private final SettableFuture<Boolean> future;
+    private boolean resolved;
+
+    Replies(long started, long pzxid, List<String> candidates, SettableFuture<Boolean> future) {
+      this.started = started;
+      this.pzxid = pzxid;
+      this.candidates = candidates;
+      this.contents = new byte[candidates.size()][];
+      this.versions = new long[candidates.size()];
+      this.arrived = new boolean[candidates.size()];
+      this.future = future;
+    }
+
+    void arrived(int index, byte[] content, long mzxid) {
+      synchronized (this) {
+        contents[index] = content;
+        versions[index] = mzxid;
+        arrived[index] = true;
+      }
+      resolve();
+    }
+
+    /**
+     * 从优先级最高的路径开始检查，遇到还没返回的路径就继续等待
+     */
+    void resolve() {
+      byte[] content = new byte[0];
+      Map<String, Long> checked = Maps.newLinkedHashMap();
+      checked.put(path, pzxid);
+      synchronized (this) {
+        if (resolved) {
+          return;
+        }
+        for (int i = 0; i < contents.length; i++) {
+          if (!arrived[i]) {
+            return;
+          }
+          checked.put(candidates.get(i), versions[i]);
+          if (contents[i] != null && contents[i].length > 0) {
+            LOG.info("{}, path:{}", getName(), candidates.get(i));
+            content = contents[i];
+            break;
+          }
+        }
+        resolved = true;
+      }
+      if (content.length == 0) {
+        LOG.warn("cannot find {} in zookeeper, path{}", getName(), path);
+      }
+      if (apply(started, checked, content)) {
+        watchLeaves(checked);
+      }
+      future.set(true);
+    }
+  }
+
   public CuratorFramework getClient() {
     return client;
   }
@@ -3,15 +3,21 @@ package com.github.autoconf.impl;
 import com.github.autoconf.api.IFileListener;
 import com.github.autoconf.watcher.FileUpdateWatcher;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.curator.framework.CuratorFramework;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Set;
 
@@ -21,21 +27,42 @@ import java.util.Set;
  * 1.启动首先查找本地配置,如果有的话,会先使用本地配置.
  * 2.同时启动异步线程检查远程zookeeper的配置.
  * 3.远程zookeeper改动内容会同步些往本地文件缓存.
+ * 4.缓存文件超过mmapThreshold的时候,直接映射文件作为配置内容,堆内不保存副本,同一台机器的多个进程共享page cache.
+ * 5.写缓存文件先写临时文件再rename,不会截断正在被映射的旧文件.
+ *   其他进程通过文件创建事件感知rename,直接映射新文件,不会再写1次.
+ * 6.旧版本的进程会直接截断重写缓存文件,已经映射这个文件的进程读取时可能收到SIGBUS,
+ *   所以共享缓存目录的进程都升级到支持rename写入的版本以后才能开启mmapThreshold.
+ * 7.指定ConfigTree时从共享的TreeCache读取远程配置,不再各自注册zookeeper watcher,本地缓存的用法不变.
  * </pre>
  * Created by lirui on 2015/9/30.
  */
 public class RemoteConfigWithCache extends RemoteConfig {
   private static final Logger LOG = LoggerFactory.getLogger(RemoteConfigWithCache.class);
   private final File cacheFile;
+  /**
+   * 共享模式使用的配置树,为null表示直接访问zookeeper
+   */
+  private final ConfigTree tree;
   /**
    * 延迟加载远程配置初始值,避免加载配置影响启动
    */
   private long delaySeconds = 20;
   private boolean loadedFromZookeeper = false;
+  /**
+   * 缓存文件超过这个大小就使用文件映射,默认不使用
+   */
+  private long mmapThreshold = Long.MAX_VALUE;
 
   public RemoteConfigWithCache(String name, String basePath, List<String> paths, CuratorFramework client, File cacheFile) {
     super(name, basePath, paths, client);
     this.cacheFile = cacheFile;
+    this.tree = null;
+  }
+
+  public RemoteConfigWithCache(String name, String basePath, List<String> paths, ConfigTree tree, File cacheFile) {
+    super(name, basePath, paths, tree.getClient());
+    this.cacheFile = cacheFile;
+    this.tree = tree;
   }
 
   public File getCacheFile() {
@@ -46,33 +73,96 @@ public class RemoteConfigWithCache extends RemoteConfig {
     this.delaySeconds = delaySeconds;
   }
 
+  public long getMmapThreshold() {
+    return mmapThreshold;
+  }
+
+  public void setMmapThreshold(long mmapThreshold) {
+    this.mmapThreshold = mmapThreshold;
+  }
+
   @Override
   public void start() {
-    Set<RemoteConfig> checking = Sets.newConcurrentHashSet();
-    //有本地配置就先从本地加载
-    if (cacheFile.exists()) {
-      try {
+    //有本地配置就先从本地加载,本地没有则直接从zookeeper加载
+    if (!loadCache()) {
+      initZookeeper();
+    }
+    watchCache();
+  }
+
+  /**
+   * 有本地配置时和start一样先使用本地配置,延迟检查zookeeper;本地没有才异步从zookeeper加载
+   */
+  @Override
+  public ListenableFuture<Boolean> startAsync() {
+    if (tree != null) {
+      //从本地内存加载,不需要等待
+      start();
+      return Futures.immediateFuture(true);
+    }
+    ListenableFuture<Boolean> future = loadCache() ? Futures.immediateFuture(true) : super.startAsync();
+    watchCache();
+    return future;
+  }
+
+  @Override
+  protected void initZookeeper() {
+    if (tree == null) {
+      super.initZookeeper();
+      return;
+    }
+    tree.register(this);
+    loadFromZookeeper();
+  }
+
+  @Override
+  protected void loadFromZookeeper() {
+    if (tree == null) {
+      super.loadFromZookeeper();
+      return;
+    }
+    loadFrom(new Supplier<byte[]>() {
+      @Override
+      public byte[] get() {
+        return tree.load(getPath(), getPaths());
+      }
+    });
+  }
+
+  private boolean loadCache() {
+    if (!cacheFile.exists()) {
+      return false;
+    }
+    try {
+      if (cacheFile.length() >= mmapThreshold) {
+        copyOf(Files.map(cacheFile));
+      } else {
         copyOf(Files.toByteArray(cacheFile));
-        //异步检查zookeeper中配置
-        checking.add(this);
-      } catch (IOException e) {
-        LOG.error("cannot read {}", cacheFile);
-        initZookeeper();
       }
-    } else {
-      //本地没有则直接从zookeeper加载
-      initZookeeper();
+    } catch (IOException e) {
+      LOG.error("cannot read {}", cacheFile);
+      return false;
     }
+    //延迟加载zookeeper上的配置,避免服务启动过慢
+    Set<RemoteConfig> checking = Sets.newConcurrentHashSet();
+    checking.add(this);
+    asyncCheckZookeeper(checking);
+    return true;
+  }
+
+  private void watchCache() {
     //注册本地配置变更通知回调
     FileUpdateWatcher.getInstance().watch(cacheFile.toPath(), new IFileListener() {
       @Override
       public void changed(Path path, byte[] content) {
         LOG.info("local change: {}", path);
-        refresh(content);
+        //超过mmapThreshold的文件没有读入堆内,直接在映射上比较
+        boolean changed = content == null ? refreshMapped() : refresh(content, false);
+        if (changed) {
+          notifyListeners();
+        }
       }
-    });
-    //延迟加载zookeeper上的配置,避免服务启动过慢
-    asyncCheckZookeeper(checking);
+    }, mmapThreshold - 1);
   }
 
   private void asyncCheckZookeeper(final Set<RemoteConfig> asyncCheck) {
@@ -99,33 +189,96 @@ public class RemoteConfigWithCache extends RemoteConfig {
     zkThread.start();
   }
 
-  private void refresh(byte[] content) {
-    if (isChanged(content)) {
-      copyOf(content);
-      notifyListeners();
+  /**
+   * @param content 新内容
+   * @param save    是否写入缓存文件,本地文件变化触发的刷新文件里已经是新内容
+   * @return 安装了新内容返回true,由调用方通知listener
+   */
+  private boolean refresh(byte[] content, boolean save) {
+    if (!isChanged(content)) {
+      return false;
+    }
+    //大配置先落盘再映射新文件,堆内的content随后就可以回收了
+    if (content.length >= mmapThreshold && (!save || save(content)) && loadMapped()) {
+      return true;
+    }
+    copyOf(content);
+    if (save) {
+      save(content);
+    }
+    return true;
+  }
+
+  /**
+   * 映射其他进程写入的缓存文件,长度和hash都没变就不安装
+   *
+   * @return 安装了新内容返回true
+   */
+  private boolean refreshMapped() {
+    try {
+      MappedByteBuffer buffer = Files.map(cacheFile);
+      if (!isBufferChanged(buffer)) {
+        return false;
+      }
+      copyOf(buffer);
+      return true;
+    } catch (IOException e) {
+      LOG.error("cannot map {}", cacheFile, e);
+      return false;
+    }
+  }
+
+  private boolean loadMapped() {
+    try {
+      copyOf(Files.map(cacheFile));
+      return true;
+    } catch (IOException e) {
+      LOG.error("cannot map {}", cacheFile, e);
+      return false;
+    }
+  }
+
+  private boolean save(byte[] content) {
+    File tmp = null;
+    try {
+      //已经加载过,就不要再通过本地文件修改通知再加载1次了
+      FileUpdateWatcher.getInstance().mask(cacheFile.toPath());
+      //每次写入都用新的临时文件,共享缓存目录的进程同时写入时不会截断或者交错写同1个文件
+      tmp = File.createTempFile('.' + cacheFile.getName() + '.', ".tmp", cacheFile.getParentFile());
+      Files.write(content, tmp);
       try {
-        //已经加载过,就不要再通过本地文件修改通知再加载1次了
-        FileUpdateWatcher.getInstance().mask(cacheFile.toPath());
-        Files.write(content, cacheFile);
-      } catch (IOException e) {
-        LOG.error("cannot write {}", cacheFile);
+        java.nio.file.Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        java.nio.file.Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.error("cannot write {}", cacheFile, e);
+      if (tmp != null && !tmp.delete() && tmp.exists()) {
+        LOG.warn("cannot delete {}", tmp);
       }
+      return false;
     }
   }
 
   @Override
-  protected void reload(byte[] content) {
+  protected boolean reload(byte[] payload) {
+    //本地缓存保存解压后的内容,压缩数据损坏时保留原内容
+    byte[] content = decode(payload);
+    if (content == null && payload != null) {
+      return false;
+    }
     //避免首次启动,远程配置不存在反而覆盖了本地配置
     if ((content == null || content.length == 0) && !loadedFromZookeeper) {
       LOG.warn("{} deleted, wont clean local for safety", getPath());
-      return;
+      return false;
     }
     loadedFromZookeeper = true;
-    refresh(content);
+    return refresh(content, true);
   }
 
   @Override
   public String toString() {
-    return MoreObjects.toStringHelper(this).add("name", getName()).add("cacheFile", cacheFile).add("zkPath", getPath()).toString();
+    return MoreObjects.toStringHelper(this).add("name", getName()).add("cacheFile", cacheFile).add("zkPath", getPath()).add("mapped", snapshot().isMapped()).toString();
   }
 }
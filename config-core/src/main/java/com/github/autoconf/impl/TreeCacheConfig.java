@@ -0,0 +1,66 @@
+package com.github.autoconf.impl;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+/**
+ * 从共享的ConfigTree读取的远程配置，自己不在zookeeper上注册watcher，
+ * 节点变化由ConfigTree通知，内容直接从本地内存按优先级读取
+ */
+public class TreeCacheConfig extends RemoteConfig {
+  private final ConfigTree tree;
+
+  public TreeCacheConfig(String name, String path, List<String> paths, ConfigTree tree) {
+    super(name, path, paths, tree.getClient());
+    this.tree = tree;
+  }
+
+  public ConfigTree getTree() {
+    return tree;
+  }
+
+  @Override
+  public void start() {
+    tree.register(this);
+    loadFromZookeeper();
+  }
+
+  /**
+   * 从本地内存加载，不需要等待
+   */
+  @Override
+  public ListenableFuture<Boolean> startAsync() {
+    start();
+    return Futures.immediateFuture(true);
+  }
+
+  /**
+   * 重连以后由TreeCache自己同步，这里只从本地内存重新取值
+   */
+  @Override
+  protected void initZookeeper() {
+    loadFromZookeeper();
+  }
+
+  /**
+   * 和其他加载一样按顺序安装，避免启动线程和TreeCache线程同时加载时旧内容覆盖新内容
+   */
+  @Override
+  protected void loadFromZookeeper() {
+    loadFrom(new Supplier<byte[]>() {
+      @Override
+      public byte[] get() {
+        return tree.load(getPath(), getPaths());
+      }
+    });
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("name", getName()).add("path", getPath()).add("tree", tree.getRoot()).toString();
+  }
+}
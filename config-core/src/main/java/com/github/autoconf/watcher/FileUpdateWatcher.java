@@ -26,6 +26,10 @@ public class FileUpdateWatcher implements Runnable {
    */
   private final Map<Path, Multimap<Path, IFileListener>> watches = Maps.newConcurrentMap();
   private final Map<Path, Long> masks = Maps.newConcurrentMap();
+  /**
+   * listener能接受的最大文件长度,超过时回调的content为null,由listener自己映射文件
+   */
+  private final Map<IFileListener, Long> readLimits = Maps.newConcurrentMap();
   private WatchService watchService;
   private boolean running = false;
 
@@ -50,11 +54,24 @@ public class FileUpdateWatcher implements Runnable {
   }
 
   public void watch(Path path, IFileListener listener) {
+    watch(path, listener, Long.MAX_VALUE);
+  }
+
+  /**
+   * 监测文件变更,文件长度超过maxReadBytes时不读取内容,回调的content为null
+   *
+   * @param path         文件路径
+   * @param listener     回调
+   * @param maxReadBytes 回调前读入堆内的最大文件长度
+   */
+  public void watch(Path path, IFileListener listener, long maxReadBytes) {
+    readLimits.put(listener, maxReadBytes);
     Path parent = path.getParent();
     Multimap<Path, IFileListener> files = watches.get(parent);
     if (files == null) {
       try {
-        WatchEvent.Kind[] events = {ENTRY_MODIFY, ENTRY_DELETE};
+        //缓存文件通过rename替换时只有ENTRY_CREATE事件
+        WatchEvent.Kind[] events = {ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE};
         parent.register(watchService, events, SensitivityWatchEventModifier.HIGH);
         LOG.info("monitor directory {}", parent);
       } catch (IOException e) {
@@ -92,6 +109,11 @@ public class FileUpdateWatcher implements Runnable {
             WatchEvent<Path> ev = cast(event);
             Path context = ev.context();
             Path child = base.resolve(context);
+            //只处理注册过的文件,写缓存用的临时文件等不需要屏蔽
+            Collection<IFileListener> listeners = watches.get(base).get(child);
+            if (listeners == null || listeners.isEmpty()) {
+              continue;
+            }
             LOG.info("{}, {}", kind, child);
             //屏蔽只剩小10秒钟,避免误封禁
             Long stamp = masks.remove(child);
@@ -102,18 +124,25 @@ public class FileUpdateWatcher implements Runnable {
 
             //屏蔽一会,避免频繁加载
             mask(child);
-            Collection<IFileListener> listeners = watches.get(base).get(child);
-            if (listeners == null || listeners.isEmpty()) {
-              continue;
-            }
-            //配置文件内容都不大,所以这里就读出来,不用每个listener再分别读取了
+            //配置文件内容一般都不大,所以这里就读出来,不用每个listener再分别读取了
             byte[] content = new byte[0];
+            long size = -1;
             if (child.toFile().exists()) {
               //在linux环境下修改文件会触发多次,而且首次可能读取不到文件内容,所以等待一段时间再读数据
               Thread.sleep(200);
-              content = Files.readAllBytes(child);
+              size = Files.size(child);
+              content = null;
             }
             for (IFileListener i : listeners) {
+              Long limit = readLimits.get(i);
+              if (limit != null && size >= 0 && size > limit) {
+                i.changed(child, null);
+                continue;
+              }
+              //只在有listener需要时才读取
+              if (content == null) {
+                content = Files.readAllBytes(child);
+              }
               i.changed(child, content);
             }
           }
@@ -71,6 +71,26 @@ public class LocalConfigFactoryTest {
     }
   }
 
+  @Test
+  public void testStructuredFormat() throws Exception {
+    File dir = Files.createTempDir();
+    File json = dir.toPath().resolve("app.json").toFile();
+    File yml = dir.toPath().resolve("legacy.yml").toFile();
+    try {
+      TestHelper.writeFile(newBytes("{\"pool\": {\"max\": 20}}"), json);
+      TestHelper.writeFile(newBytes("a=1"), yml);
+      LocalConfigFactory factory = new LocalConfigFactory(dir.toPath());
+      //默认按kv格式解析
+      assertThat(factory.getConfig("legacy.yml").getInt("a"), is(1));
+      factory.setStructuredFormat(true);
+      assertThat(factory.getConfig("app.json").getInt("pool.max"), is(20));
+    } finally {
+      TestHelper.deleteFile(json);
+      TestHelper.deleteFile(yml);
+      TestHelper.deleteFile(dir);
+    }
+  }
+
   @Test
   public void testInstance() throws Exception {
     IConfigFactory factory = LocalConfigFactory.getInstance();
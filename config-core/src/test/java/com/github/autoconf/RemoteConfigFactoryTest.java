@@ -5,6 +5,8 @@ import com.github.autoconf.api.IChangeableConfig;
 import com.github.autoconf.api.IConfig;
 import com.github.autoconf.base.ProcessInfo;
 import com.github.autoconf.helper.ConfigHelper;
+import com.github.autoconf.impl.TreeCacheConfig;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closeables;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.utils.ZKPaths;
@@ -15,6 +17,7 @@ import org.junit.Test;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.autoconf.helper.ZookeeperUtil.*;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -59,4 +62,93 @@ public class RemoteConfigFactoryTest {
     TestHelper.busyWait(num);
     assertThat(c.getInt("a"), is(2));
   }
+
+  @Test
+  public void testPreload() throws Exception {
+    ProcessInfo info = new ProcessInfo();
+    info.setPath(factory.getInfo().getPath());
+    info.setIp("10.0.0.1");
+    info.setProfile("test");
+    RemoteConfigFactory factory = new RemoteConfigFactory(info, RemoteConfigFactoryTest.factory.getClient());
+    String base = ZKPaths.makePath(info.getPath(), "preload-a.ini");
+    create(factory.getClient(), ZKPaths.makePath(base, info.getProfile()), newBytes("a=profile"));
+    create(factory.getClient(), ZKPaths.makePath(base, info.getIp()), newBytes("a=ip"));
+    create(factory.getClient(), ZKPaths.makePath(info.getPath(), "preload-b.ini", info.getProfile()), newBytes("b=1"));
+    create(factory.getClient(), ZKPaths.makePath(info.getPath(), "preload-c.ini", "unknown"), newBytes("c=1"));
+
+    factory.preload(ImmutableList.of("preload-a.ini", "preload-b.ini,preload-c.ini", "preload-d.ini"));
+    assertThat(factory.hasConfig("preload-b.ini"), is(true));
+    assertThat(factory.hasConfig("preload-b.ini,preload-c.ini"), is(true));
+    //ip优先于profile,不在候选路径里的节点不加载,不存在的配置为空
+    assertThat(factory.getConfig("preload-a.ini").get("a"), is("ip"));
+    assertThat(factory.getConfig("preload-b.ini,preload-c.ini").getInt("b"), is(1));
+    assertThat(factory.getConfig("preload-c.ini").getAll().isEmpty(), is(true));
+    assertThat(factory.getConfig("preload-d.ini").getAll().isEmpty(), is(true));
+
+    //批量加载以后仍然可以收到变更
+    final AtomicInteger num = new AtomicInteger(0);
+    IChangeListener listener = new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        num.incrementAndGet();
+      }
+    };
+    factory.getConfig("preload-a.ini", listener, false);
+    setData(factory.getClient(), ZKPaths.makePath(base, info.getIp()), newBytes("a=ip2"));
+    TestHelper.busyWait(num);
+    assertThat(factory.getConfig("preload-a.ini").get("a"), is("ip2"));
+
+    num.set(0);
+    factory.getConfig("preload-d.ini", listener, false);
+    create(factory.getClient(), ZKPaths.makePath(info.getPath(), "preload-d.ini", info.getProfile()), newBytes("d=1"));
+    TestHelper.busyWait(num);
+    assertThat(factory.getConfig("preload-d.ini").getInt("d"), is(1));
+  }
+
+  @Test
+  public void testSharedTree() throws Exception {
+    ProcessInfo info = new ProcessInfo();
+    info.setPath("/shared/config");
+    info.setIp("10.0.0.1");
+    info.setProfile("test");
+    RemoteConfigFactory factory = new RemoteConfigFactory(info, RemoteConfigFactoryTest.factory.getClient());
+    factory.setSharedTree(true);
+    String base = ZKPaths.makePath(info.getPath(), "tree.ini");
+    create(factory.getClient(), ZKPaths.makePath(base, info.getProfile()), newBytes("a=profile"));
+
+    final AtomicInteger num = new AtomicInteger(0);
+    IChangeableConfig c = factory.getConfig("tree.ini", new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        num.incrementAndGet();
+      }
+    }, false);
+    assertThat(c, instanceOf(TreeCacheConfig.class));
+    assertThat(c.get("a"), is("profile"));
+
+    //优先级更高的ip路径出现以后切换到ip路径
+    num.set(0);
+    create(factory.getClient(), ZKPaths.makePath(base, info.getIp()), newBytes("a=ip"));
+    TestHelper.busyWait(num);
+    assertThat(c.get("a"), is("ip"));
+
+    num.set(0);
+    delete(factory.getClient(), ZKPaths.makePath(base, info.getIp()));
+    TestHelper.busyWait(num);
+    assertThat(c.get("a"), is("profile"));
+
+    //创建时还不存在的配置
+    IChangeableConfig other = factory.getConfig("tree-later.ini", new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        num.incrementAndGet();
+      }
+    }, false);
+    assertThat(other.getAll().isEmpty(), is(true));
+    num.set(0);
+    create(factory.getClient(), ZKPaths.makePath(info.getPath(), "tree-later.ini", info.getProfile()), newBytes("b=1"));
+    TestHelper.busyWait(num);
+    assertThat(other.getInt("b"), is(1));
+    factory.getTree().close();
+  }
 }
@@ -6,6 +6,7 @@ import com.github.autoconf.base.ProcessInfo;
 import com.github.autoconf.helper.ZookeeperUtil;
 import com.github.autoconf.impl.RemoteConfigWithCache;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.utils.ZKPaths;
 import org.junit.AfterClass;
@@ -69,4 +70,37 @@ public class RemoteConfigWithCacheFactoryTest {
     assertThat(c.getInt("a"), is(2));
     TestHelper.deleteFile(f);
   }
+
+  @Test
+  public void testSharedTree() throws Exception {
+    ProcessInfo info = new ProcessInfo();
+    info.setPath("/shared/cache");
+    info.setProfile("test");
+    RemoteConfigWithCacheFactory shared = new RemoteConfigWithCacheFactory(factory.getPath(), info, factory.getClient());
+    shared.setSharedTree(true);
+    String name = "shared.ini";
+    File f = factory.getPath().resolve(name).toFile();
+    TestHelper.deleteFile(f);
+    ZookeeperUtil.create(factory.getClient(), ZKPaths.makePath(info.getPath(), name, info.getProfile()), ZookeeperUtil.newBytes("a=1"));
+    try {
+      final AtomicInteger num = new AtomicInteger(0);
+      RemoteConfigWithCache c = (RemoteConfigWithCache) shared.getConfig(name, new IChangeListener() {
+        @Override
+        public void changed(IConfig config) {
+          num.incrementAndGet();
+        }
+      }, false);
+      assertThat(c.getInt("a"), is(1));
+      //远程内容写回本地缓存
+      assertThat(ZookeeperUtil.newString(Files.toByteArray(f)), is("a=1"));
+
+      num.set(0);
+      ZookeeperUtil.setData(factory.getClient(), ZKPaths.makePath(info.getPath(), name, info.getProfile()), ZookeeperUtil.newBytes("a=2"));
+      TestHelper.busyWait(num);
+      assertThat(c.getInt("a"), is(2));
+    } finally {
+      shared.getTree().close();
+      TestHelper.deleteFile(f);
+    }
+  }
 }
@@ -0,0 +1,322 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigCursor;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.github.autoconf.helper.ZookeeperUtil.newBytes;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 测试变更检测以及版本号
+ */
+public class ChangeableConfigTest {
+  @Test
+  public void testChanged() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    assertThat(c.isChanged(null), is(true));
+    assertThat(c.isChanged(new byte[0]), is(false));
+    assertThat(c.isChanged(newBytes("a=1")), is(true));
+
+    byte[] bytes = newBytes("a=1");
+    long before = c.getVersion();
+    c.copyOf(bytes);
+    assertTrue(c.getVersion() > before);
+    assertThat(c.getInt("a"), is(1));
+    //内容相同但不是同一个数组
+    assertThat(c.isChanged(newBytes("a=1")), is(false));
+    assertThat(c.isChanged(newBytes("a=2")), is(true));
+    assertThat(c.isChanged(newBytes("a=11")), is(true));
+  }
+
+  @Test
+  public void testHash() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    byte[] bytes = newBytes("a=1\nb=2");
+    assertThat(c.isChanged(bytes), is(true));
+    c.copyOf(bytes);
+    long hash = c.getContentHash();
+    long version = c.getVersion();
+
+    //同样的内容版本号会变化，但是hash不变
+    c.copyOf(newBytes("a=1\nb=2"));
+    assertThat(c.getContentHash(), is(hash));
+    assertThat(c.getVersion(), not(version));
+
+    c.copyOf(newBytes("a=1\nb=3"));
+    assertThat(c.getContentHash(), not(hash));
+  }
+
+  @Test
+  public void testBuffer() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    byte[] bytes = newBytes("a=1\nb=名字");
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    c.copyOf(buffer);
+    assertThat(c.getInt("a"), is(1));
+    assertThat(c.get("b"), is("名字"));
+    assertThat(c.getString(), is("a=1\nb=名字"));
+    //buffer快照和数组快照的hash一致
+    assertThat(c.isChanged(newBytes("a=1\nb=名字")), is(false));
+    assertThat(c.isChanged(newBytes("a=1\nb=名")), is(true));
+
+    //映射内容直接在buffer上对比
+    assertThat(c.isBufferChanged(buffer.duplicate()), is(false));
+    byte[] other = newBytes("a=2\nb=名字");
+    ByteBuffer next = ByteBuffer.allocateDirect(other.length);
+    next.put(other).flip();
+    assertThat(c.isBufferChanged(next), is(true));
+    long hash = c.getContentHash();
+    c.copyOf(next);
+    assertThat(c.getInt("a"), is(2));
+    assertThat(c.getContentHash(), not(hash));
+  }
+
+  @Test
+  public void testDiff() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.copyOf("a=1\nb=2\nc=3");
+    final List<IConfigDiff> diffs = Lists.newArrayList();
+    c.addDiffListener(new IDiffListener() {
+      @Override
+      public void changed(IConfig config, IConfigDiff diff) {
+        diffs.add(diff);
+      }
+    }, true);
+    //注册时所有key都当作新增
+    assertThat(diffs.size(), is(1));
+    assertThat(diffs.get(0).getAdded(), is((Object) ImmutableSet.of("a", "b", "c")));
+
+    c.copyOf("a=1\nb=20\nd=4");
+    c.notifyListeners();
+    IConfigDiff diff = diffs.get(1);
+    assertThat(diff.getAdded(), is((Object) ImmutableSet.of("d")));
+    assertThat(diff.getRemoved(), is((Object) ImmutableSet.of("c")));
+    assertThat(diff.getChanged(), is((Object) ImmutableSet.of("b")));
+    assertThat(diff.getKeys().size(), is(3));
+    assertThat(diff.getOldValue("b"), is("2"));
+    assertThat(diff.getNewValue("b"), is("20"));
+    assertThat(diff.getOldValue("c"), is("3"));
+    assertThat(diff.getNewValue("c"), is((String) null));
+    assertThat(diff.getNewVersion(), is(c.getVersion()));
+
+    //只修改注释不会通知diff listener，普通listener照常通知
+    final int[] count = {0};
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        count[0]++;
+      }
+    }, false);
+    c.copyOf("#comment\na=1\nb=20\nd=4");
+    c.notifyListeners();
+    assertThat(diffs.size(), is(2));
+    assertThat(count[0], is(1));
+  }
+
+  @Test
+  public void testDiffBaseline() throws Exception {
+    //启动时加载但是没有通知，之后第1次变化只包含真正变化的key
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.copyOf("a=1\nb=2\nc=3");
+    final List<IConfigDiff> diffs = Lists.newArrayList();
+    c.addDiffListener(new IDiffListener() {
+      @Override
+      public void changed(IConfig config, IConfigDiff diff) {
+        diffs.add(diff);
+      }
+    }, false);
+    c.copyOf("a=1\nb=20\nc=3");
+    c.notifyListeners();
+    assertThat(diffs.size(), is(1));
+    assertThat(diffs.get(0).getKeys(), is((Object) ImmutableSet.of("b")));
+    assertThat(diffs.get(0).getAdded().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testDerive() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.copyOf("pattern=a+b");
+    final AtomicInteger builds = new AtomicInteger(0);
+    Function<IConfig, Pattern> builder = new Function<IConfig, Pattern>() {
+      @Override
+      public Pattern apply(IConfig input) {
+        builds.incrementAndGet();
+        return Pattern.compile(input.get("pattern"));
+      }
+    };
+    Pattern p = c.derive("pattern", builder);
+    //版本不变直接使用缓存
+    assertThat(c.derive("pattern", builder), is(p));
+    assertThat(builds.get(), is(1));
+
+    c.copyOf("pattern=c+");
+    assertThat(c.derive("pattern", builder).pattern(), is("c+"));
+    assertThat(builds.get(), is(2));
+
+    //构建失败保留旧对象，同一个版本不再重试
+    c.copyOf("pattern=(");
+    assertThat(c.derive("pattern", builder).pattern(), is("c+"));
+    assertThat(c.derive("pattern", builder).pattern(), is("c+"));
+    assertThat(c.derive("pattern", builder, true).pattern(), is("c+"));
+    assertThat(builds.get(), is(3));
+    Derived<?> d = c.getDerived().get("pattern");
+    assertThat(d.getFailures(), is(1L));
+    assertThat(d.getHits(), is(1L));
+    assertThat(d.getStale(), is(2L));
+
+    //后台模式先返回旧对象
+    c.copyOf("pattern=d+");
+    assertThat(c.derive("pattern", builder, true).pattern(), is("c+"));
+    for (int i = 0; i < 50 && d.getVersion() != c.getVersion(); i++) {
+      Thread.sleep(20);
+    }
+    assertThat(c.derive("pattern", builder, true).pattern(), is("d+"));
+    assertThat(d.getStale(), is(3L));
+    assertThat(d.getBuilds(), is(4L));
+    assertTrue(d.getHitRate() > 0);
+
+    //从来没有构建成功过，同一个版本直接抛出上次的异常
+    ChangeableConfig bad = new ChangeableConfig("bad");
+    bad.copyOf("pattern=(");
+    for (int i = 0; i < 2; i++) {
+      try {
+        bad.derive("pattern", builder);
+        fail();
+      } catch (PatternSyntaxException ignored) {
+      }
+    }
+    assertThat(builds.get(), is(5));
+  }
+
+  @Test
+  public void testDeriveShared() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.copyOf("db.url=x\ndb.pool.max=10");
+    final AtomicInteger builds = new AtomicInteger(0);
+    Function<IConfig, String> builder = new Function<IConfig, String>() {
+      @Override
+      public String apply(IConfig input) {
+        builds.incrementAndGet();
+        return input.get("url");
+      }
+    };
+    //前缀相同的子集共用缓存
+    String url = c.subset("db.").derive("url", builder);
+    assertThat(url, is("x"));
+    assertTrue(url == c.subset("db.").derive("url", builder));
+    assertThat(c.subset("db").subset(".").derive("url", builder), is("x"));
+    assertThat(builds.get(), is(1));
+
+    //固定快照的配置在原配置没有更新时直接使用原配置的对象
+    c.notifyListeners();
+    IConfig pinned = c.cursor().poll();
+    assertTrue(url == pinned.subset("db.").derive("url", builder));
+    assertThat(builds.get(), is(1));
+    c.copyOf("db.url=y");
+    assertThat(c.subset("db.").derive("url", builder), is("y"));
+    assertThat(pinned.subset("db.").derive("url", builder), is("x"));
+    assertThat(builds.get(), is(3));
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    //默认按kv格式解析，不根据扩展名自动切换
+    ChangeableConfig legacy = new ChangeableConfig("legacy.yml");
+    legacy.copyOf("a=1");
+    assertThat(legacy.getInt("a"), is(1));
+    assertTrue(legacy.getFormat() == null);
+
+    ChangeableConfig c = new ChangeableConfig("app.json");
+    c.setFormat(Formats.forName(c.getName()));
+    c.copyOf("{\"pool\": {\"max\": 20}, \"servers\": [{\"host\": \"a\"}]}");
+    c.notifyListeners();
+    assertThat(c.getInt("pool.max"), is(20));
+    assertThat(c.get("servers[0].host"), is("a"));
+    assertThat(c.subset("pool.").getInt("max"), is(20));
+    Object tree = c.getTree();
+    assertTrue(tree instanceof java.util.Map);
+    //同一个版本只解析1次
+    assertTrue(tree == c.getTree());
+    assertThat(c.getString().startsWith("{"), is(true));
+
+    final List<IConfigDiff> diffs = Lists.newArrayList();
+    c.addDiffListener(new IDiffListener() {
+      @Override
+      public void changed(IConfig config, IConfigDiff diff) {
+        diffs.add(diff);
+      }
+    }, false);
+    c.copyOf("{\"pool\": {\"max\": 30}, \"servers\": [{\"host\": \"a\"}]}");
+    c.notifyListeners();
+    assertThat(diffs.get(0).getChanged(), is((Object) ImmutableSet.of("pool.max")));
+
+    //格式错误时继续使用上一个正确的版本
+    long version = c.getVersion();
+    c.copyOf("{bad");
+    assertThat(c.getVersion(), is(version));
+    assertThat(c.getInt("pool.max"), is(30));
+
+    c.setFormat(Formats.INI);
+    c.copyOf("[db]\nurl=x");
+    assertThat(c.get("db.url"), is("x"));
+  }
+
+  @Test
+  public void testCursor() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    IConfigCursor cursor = c.cursor();
+    //还没有加载过内容
+    assertThat(cursor.poll() == null, is(true));
+    c.copyOf("a=1");
+    c.notifyListeners();
+    IConfig first = cursor.poll();
+    assertThat(first.getInt("a"), is(1));
+    assertThat(cursor.getVersion(), is(c.getVersion()));
+    assertThat(cursor.hasChanged(), is(false));
+
+    //处理慢的时候跳过中间版本，只拿到最新的
+    for (int i = 2; i <= 5; i++) {
+      c.copyOf("a=" + i);
+      c.notifyListeners();
+    }
+    IConfig latest = cursor.poll(10, TimeUnit.MILLISECONDS);
+    assertThat(latest.getInt("a"), is(5));
+    assertThat(cursor.poll(10, TimeUnit.MILLISECONDS) == null, is(true));
+    //拿到的快照不随原配置变化
+    assertThat(first.getInt("a"), is(1));
+
+    ListenableFuture<IConfig> next = cursor.next();
+    assertThat(next.isDone(), is(false));
+    assertTrue(next == cursor.next());
+    c.copyOf("a=6");
+    c.notifyListeners();
+    assertThat(next.get(1, TimeUnit.SECONDS).getInt("a"), is(6));
+
+    next = cursor.next();
+    cursor.close();
+    assertThat(next.isCancelled(), is(true));
+    c.copyOf("a=7");
+    c.notifyListeners();
+    assertThat(cursor.poll() == null, is(true));
+  }
+}
@@ -0,0 +1,77 @@
+package com.github.autoconf.base;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 测试紧凑存储，内容和迭代顺序都要和普通解析完全一致
+ */
+public class CompactKvMapTest {
+  @Test
+  public void testLookup() throws Exception {
+    String s = "a=1\n名字 = 张三\nemoji😀=笑\nb=2\na=3\n#c=4\n";
+    byte[] bytes = s.getBytes(Config.UTF8);
+    Map<String, String> m = CompactKvMap.build(bytes);
+    assertThat(m, notNullValue());
+    assertThat(m.size(), is(4));
+    assertThat(m.get("a"), is("3"));
+    assertThat(m.get("名字"), is("张三"));
+    assertThat(m.get("emoji😀"), is("笑"));
+    assertThat(m.get("emoji"), nullValue());
+    assertThat(m.get("#c"), nullValue());
+    assertThat(m.containsKey("b"), is(true));
+    assertThat(m.containsKey(1), is(false));
+    assertThat(Lists.newArrayList(m.keySet()), equalTo(Lists.newArrayList(KvParser.parse(bytes).keySet())));
+    assertThat(m, equalTo(KvParser.parse(bytes)));
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+    //超长编码的'/'以及单独的代理区字符，new String会替换成U+FFFD
+    assertThat(CompactKvMap.build(new byte[]{'a', (byte) 0xC0, (byte) 0xAF, '=', '1'}), nullValue());
+    assertThat(CompactKvMap.build(new byte[]{'a', '=', (byte) 0xED, (byte) 0xA0, (byte) 0x80}), nullValue());
+
+    Config c = new Config();
+    int threshold = Snapshot.getCompactThreshold();
+    Snapshot.setCompactThreshold(0);
+    try {
+      c.copyOf(new byte[]{'a', '=', (byte) 0xFF});
+      assertThat(c.get("a"), is("\uFFFD"));
+      c.copyOf("x=1\ny=2");
+      assertThat(c.getInt("y"), is(2));
+      assertThat(c.getAll().getClass().getSimpleName(), is("CompactKvMap"));
+    } finally {
+      Snapshot.setCompactThreshold(threshold);
+    }
+  }
+
+  @Test
+  public void testRandom() throws Exception {
+    String[] parts = {"a", "b", "=", " ", "\n", "#", "值", "é", "😀", "　"};
+    Random random = new Random(20261018L);
+    for (int round = 0; round < 2000; round++) {
+      StringBuilder sbd = new StringBuilder();
+      int n = random.nextInt(60);
+      for (int i = 0; i < n; i++) {
+        sbd.append(parts[random.nextInt(parts.length)]);
+      }
+      byte[] bytes = sbd.toString().getBytes(Config.UTF8);
+      Map<String, String> expected = KvParser.parse(bytes);
+      Map<String, String> m = CompactKvMap.build(bytes);
+      assertThat(m, equalTo(expected));
+      assertThat(Lists.newArrayList(m.entrySet()), equalTo(Lists.newArrayList(expected.entrySet())));
+      for (String k : expected.keySet()) {
+        assertThat(m.get(k), is(expected.get(k)));
+      }
+    }
+  }
+}
@@ -1,11 +1,17 @@
 package com.github.autoconf.base;
 
+import com.github.autoconf.api.IConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -24,4 +30,89 @@ public class ConfigTest {
     assertThat(lines.size(), is(3));
     assertThat(lines.get(2), is("</root>"));
   }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    Config c = new Config();
+    assertThat(c.getContent().length, is(0));
+    assertThat(c.getAll().isEmpty(), is(true));
+
+    c.copyOf("a=1\nb = 2 \n#c=3\n");
+    Snapshot before = c.snapshot();
+    assertThat(c.getInt("a"), is(1));
+    assertThat(c.getInt("b"), is(2));
+    assertThat(c.has("c"), is(false));
+
+    //更新后旧快照保持不变,新快照的字节流根据kv内容生成
+    c.copyOf(ImmutableMap.of("a", "3"));
+    assertThat(before.getAll().get("a"), is("1"));
+    assertThat(c.getInt("a"), is(3));
+    assertThat(c.has("b"), is(false));
+    assertThat(c.getString(), is("a=3\n"));
+  }
+
+  @Test
+  public void testCachedLines() throws Exception {
+    Config c = new Config();
+    c.copyOf("#comment\n a \nb\n");
+    List<String> lines = c.getLines();
+    assertThat(lines.size(), is(2));
+    assertThat(c.getLines(Config.UTF8, false).size(), is(3));
+    //同一个版本多次调用返回同一个对象
+    assertThat(c.getLines(), sameInstance(lines));
+    assertThat(c.getString(), sameInstance(c.getString(Config.UTF8)));
+    assertThat(c.getString(Config.GBK), not(sameInstance(c.getString())));
+
+    c.copyOf("c\n");
+    assertThat(c.getLines().size(), is(1));
+    assertThat(lines.get(0), is("a"));
+  }
+
+  @Test
+  public void testContains() throws Exception {
+    Config c = new Config();
+    c.copyOf("# ip blocklist\n10.0.0.1\n 10.0.0.2 \n123\n-5\n123\n");
+    assertThat(c.containsLine("10.0.0.2"), is(true));
+    assertThat(c.containsLine("# ip blocklist"), is(false));
+    assertThat(c.containsLine("10.0.0.3"), is(false));
+    assertThat(c.containsLine(null), is(false));
+    assertThat(c.mightContainLine("10.0.0.1"), is(true));
+    assertThat(c.containsLong(123), is(true));
+    assertThat(c.containsLong(-5), is(true));
+    assertThat(c.containsLong(10), is(false));
+
+    c.copyOf("10.0.0.3\n7\n");
+    assertThat(c.containsLine("10.0.0.2"), is(false));
+    assertThat(c.containsLine("10.0.0.3"), is(true));
+    assertThat(c.containsLong(123), is(false));
+    assertThat(c.containsLong(7), is(true));
+  }
+
+  @Test
+  public void testSubset() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("db.ini");
+    c.copyOf("db.master.url=m\ndb.slave.1.url=s1\ndb.slave.2.url=s2\ndbx=1\nredis.pool.maxIdle=8\n");
+    IConfig db = c.subset("db.");
+    assertThat(db.getName(), is("db.ini:db."));
+    assertThat(db.get("master.url"), is("m"));
+    assertThat(db.get("dbx"), is((String) null));
+    assertThat(db.getAll().size(), is(3));
+    assertThat(Lists.newArrayList(db.getAll().keySet()), equalTo(Lists.newArrayList("master.url", "slave.1.url", "slave.2.url")));
+    assertThat(db.getAll(), sameInstance(db.getAll()));
+    assertThat(db.getVersion(), is(c.getVersion()));
+
+    IConfig slave = db.subset("slave.");
+    assertThat(slave.getAll(), equalTo((Map<String, String>) ImmutableMap.of("1.url", "s1", "2.url", "s2")));
+    assertThat(c.subset("redis.").getInt("pool.maxIdle"), is(8));
+    assertThat(c.subset("none.").getAll().isEmpty(), is(true));
+    //前缀相同的子集共用原配置快照中的同1个视图
+    assertThat(((SubsetConfig) c.subset("db.")).snapshot(), sameInstance(((SubsetConfig) db).snapshot()));
+
+    //原配置更新后子集跟着变化
+    c.copyOf("db.master.url=m2\nredis.pool.maxIdle=16\n");
+    assertThat(db.get("master.url"), is("m2"));
+    assertThat(db.getAll().size(), is(1));
+    assertThat(slave.getAll().isEmpty(), is(true));
+    assertThat(db.getString(), is("master.url=m2\n"));
+  }
 }
@@ -0,0 +1,56 @@
+package com.github.autoconf.base;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 测试合并窗口以及最大等待时间
+ */
+public class DebouncerTest {
+  @Test
+  public void testWindow() throws Exception {
+    final AtomicInteger count = new AtomicInteger(0);
+    Debouncer d = new Debouncer("test", new Runnable() {
+      @Override
+      public void run() {
+        count.incrementAndGet();
+      }
+    }, 100, 1000);
+    for (int i = 0; i < 10; i++) {
+      d.trigger();
+    }
+    Thread.sleep(300);
+    assertThat(count.get(), is(1));
+    assertThat(d.getTriggered(), is(10L));
+
+    //新的一轮
+    d.trigger();
+    Thread.sleep(300);
+    assertThat(count.get(), is(2));
+  }
+
+  @Test
+  public void testMaxDelay() throws Exception {
+    final AtomicInteger count = new AtomicInteger(0);
+    Debouncer d = new Debouncer("test", new Runnable() {
+      @Override
+      public void run() {
+        count.incrementAndGet();
+      }
+    }, 100, 300);
+    //持续触发的间隔比窗口小，只靠最大等待时间保证执行
+    long end = System.currentTimeMillis() + 1000;
+    while (System.currentTimeMillis() < end) {
+      d.trigger();
+      Thread.sleep(20);
+    }
+    assertTrue("executed " + count.get(), count.get() >= 2);
+    Thread.sleep(300);
+    assertThat(d.getExecuted(), is((long) count.get()));
+  }
+}
@@ -3,8 +3,19 @@ package com.github.autoconf.base;
 import com.github.autoconf.api.IChangeListener;
 import com.github.autoconf.api.IChangeable;
 import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -62,4 +73,206 @@ public class EventBusTest {
     //回调函数被调用，不受其他listener抛出异常影响
     assertThat(count.get(), is(1));
   }
+
+  @Test
+  public void testAsync() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    Dispatcher dispatcher = new Dispatcher(executor, 0, 0);
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.setDispatcher(dispatcher);
+    final CountDownLatch blocking = new CountDownLatch(1);
+    final CountDownLatch entered = new CountDownLatch(1);
+    final AtomicInteger slowCount = new AtomicInteger(0);
+    final AtomicInteger fastCount = new AtomicInteger(0);
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        slowCount.incrementAndGet();
+        entered.countDown();
+        try {
+          blocking.await();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    }, false);
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        fastCount.incrementAndGet();
+      }
+    }, false);
+    final List<IConfigDiff> diffs = Collections.synchronizedList(Lists.<IConfigDiff>newArrayList());
+    final CountDownLatch diffEntered = new CountDownLatch(1);
+    c.addDiffListener(new IDiffListener() {
+      @Override
+      public void changed(IConfig config, IConfigDiff diff) {
+        diffs.add(diff);
+        diffEntered.countDown();
+        try {
+          blocking.await();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    }, false);
+
+    c.copyOf("a=1");
+    c.notifyListeners();
+    assertThat(entered.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(diffEntered.await(5, TimeUnit.SECONDS), is(true));
+    //慢listener执行期间的多次更新合并成1次
+    for (int i = 2; i <= 5; i++) {
+      c.copyOf("a=" + i + "\nb=" + i);
+      c.notifyListeners();
+    }
+    //通知线程没有被慢listener阻塞
+    assertThat(slowCount.get(), is(1));
+    blocking.countDown();
+    //等待合并后的通知执行完，再关闭线程池
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((slowCount.get() < 2 || diffs.size() < 2) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    executor.shutdown();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    assertThat(slowCount.get(), is(2));
+    assertThat(fastCount.get() >= 2, is(true));
+    assertThat(dispatcher.getCoalesced() >= 6, is(true));
+    //合并后的差异相当于直接对比a=1和最后的内容
+    assertThat(diffs.size(), is(2));
+    IConfigDiff merged = diffs.get(1);
+    assertThat(merged.getChanged(), is((Object) ImmutableSet.of("a")));
+    assertThat(merged.getAdded(), is((Object) ImmutableSet.of("b")));
+    assertThat(merged.getOldValue("a"), is("1"));
+    assertThat(merged.getNewValue("a"), is("5"));
+    assertThat(merged.getNewValue("b"), is("5"));
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Dispatcher dispatcher = new Dispatcher(executor, 50, 200);
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.setDispatcher(dispatcher);
+    final AtomicInteger interrupted = new AtomicInteger(0);
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        try {
+          Thread.sleep(5000);
+        } catch (InterruptedException e) {
+          interrupted.incrementAndGet();
+        }
+      }
+    }, false);
+    c.notifyListeners();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(3, TimeUnit.SECONDS), is(true));
+    assertThat(interrupted.get(), is(1));
+    assertThat(dispatcher.getTimeouts(), is(1L));
+    assertThat(dispatcher.getSlow(), is(1L));
+  }
+
+  @Test
+  public void testListenerError() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.setDispatcher(new Dispatcher(executor));
+    final AtomicInteger calls = new AtomicInteger(0);
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        if (calls.incrementAndGet() == 1) {
+          throw new AssertionError("listener error");
+        }
+      }
+    }, false);
+    c.notifyListeners();
+    int tries = 0;
+    while (calls.get() == 0 && ++tries < 100) {
+      Thread.sleep(10);
+    }
+    //抛出Error以后后续通知照常送达
+    c.notifyListeners();
+    tries = 0;
+    while (calls.get() < 2 && ++tries < 100) {
+      Thread.sleep(10);
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(3, TimeUnit.SECONDS), is(true));
+    assertThat(calls.get(), is(2));
+  }
+
+  @Test
+  public void testTimeoutRace() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Dispatcher dispatcher = new Dispatcher(executor, 0, 10);
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.setDispatcher(dispatcher);
+    c.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        //不响应中断，在超时前后结束
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        while (System.nanoTime() < end) {
+          Thread.yield();
+        }
+      }
+    }, false);
+    Callable<Boolean> check = new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        Thread.sleep(5);
+        return Thread.currentThread().isInterrupted();
+      }
+    };
+    //listener结束以后同一个线程上的后续任务不能被中断
+    for (int i = 0; i < 20; i++) {
+      c.notifyListeners();
+      assertThat(executor.submit(check).get(), is(false));
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testKeyListener() throws Exception {
+    ChangeableConfig c = new ChangeableConfig("test");
+    c.copyOf("a=1\nb=2\ndb.url=x\ndb.user=y");
+    c.notifyListeners();
+    final AtomicInteger keys = new AtomicInteger(0);
+    final AtomicInteger prefix = new AtomicInteger(0);
+    IChangeListener keyListener = new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        keys.incrementAndGet();
+      }
+    };
+    c.addListener(ImmutableSet.of("a", "c"), keyListener);
+    c.addPrefixListener("db.", new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        prefix.incrementAndGet();
+      }
+    }, false);
+    assertThat(keys.get(), is(1));
+    assertThat(prefix.get(), is(0));
+
+    //无关的key变化不通知
+    c.copyOf("a=1\nb=3\ndb.url=x\ndb.user=y");
+    c.notifyListeners();
+    assertThat(keys.get(), is(1));
+    assertThat(prefix.get(), is(0));
+
+    //新增和删除也算变化，同时关心的2个key都变了也只通知1次
+    c.copyOf("b=3\nc=1\ndb.url=z\ndb.user=y");
+    c.notifyListeners();
+    assertThat(keys.get(), is(2));
+    assertThat(prefix.get(), is(1));
+
+    c.removeListener(keyListener);
+    c.copyOf("a=2\nb=3\ndb.url=z");
+    c.notifyListeners();
+    assertThat(keys.get(), is(2));
+    assertThat(prefix.get(), is(2));
+  }
 }
@@ -0,0 +1,132 @@
+package com.github.autoconf.base;
+
+import com.github.autoconf.api.IFormat;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * 测试json/yaml/ini解析以及展开成kv
+ */
+public class FormatsTest {
+  @Test
+  public void testJson() throws Exception {
+    String s = "{\"pool\": {\"max\": 20, \"ratio\": 0.5, \"on\": true},\n \"servers\": [{\"host\": \"a\\u0041\"}, {\"host\": \"b\\n\"}], \"none\": null, \"big\": 123456789012345678901}";
+    Map<?, ?> tree = (Map<?, ?>) Formats.JSON.parse(new StringReader(s));
+    assertThat(((Map<?, ?>) tree.get("pool")).get("max"), is((Object) 20L));
+    assertThat(((Map<?, ?>) tree.get("pool")).get("ratio"), is((Object) 0.5));
+    assertThat(tree.get("none"), nullValue());
+    Map<String, String> m = Formats.flatten(tree);
+    assertThat(Lists.newArrayList(m.keySet()), is((List<String>) Lists.newArrayList("pool.max", "pool.ratio", "pool.on", "servers[0].host", "servers[1].host", "big")));
+    assertThat(m.get("servers[0].host"), is("aA"));
+    assertThat(m.get("servers[1].host"), is("b\n"));
+    assertThat(m.get("big"), is("1.2345678901234568E20"));
+
+    assertThat(Formats.JSON.parse(new StringReader(" ")), is((Object) ImmutableMap.of()));
+    assertError(Formats.JSON, "{\"a\": 1,\n \"b\" 2}", "line 2");
+    assertError(Formats.JSON, "[1, 2", "expect ','");
+    assertError(Formats.JSON, "{\"a\": \"x", "unterminated");
+    assertError(Formats.JSON, "{} 1", "after root");
+  }
+
+  @Test
+  public void testYaml() throws Exception {
+    String s = "# comment\n"
+        + "---\n"
+        + "pool:\n"
+        + "  max: 20   # 最大连接数\n"
+        + "  name: 'it''s'\n"
+        + "  url: http://a.com/#x\n"
+        + "servers:\n"
+        + "- host: a\n"
+        + "  port: 80\n"
+        + "-   host: \"b\\tc\"\n"
+        + "tags: [x, 'y, z', {k: v}]\n"
+        + "nested:\n"
+        + "  - - 1\n"
+        + "    - 2\n"
+        + "empty:\n"
+        + "text: |\n"
+        + "  line1\n"
+        + "\n"
+        + "  line2\n"
+        + "folded: >-\n"
+        + "  a\n"
+        + "  b\n"
+        + "\n"
+        + "  c\n"
+        + "last: ~\n";
+    Map<?, ?> tree = (Map<?, ?>) Formats.YAML.parse(new StringReader(s));
+    assertThat(((Map<?, ?>) tree.get("pool")).get("max"), is((Object) 20L));
+    assertThat(tree.get("empty"), nullValue());
+    Map<String, String> m = Formats.flatten(tree);
+    assertThat(m.get("pool.max"), is("20"));
+    assertThat(m.get("pool.name"), is("it's"));
+    assertThat(m.get("pool.url"), is("http://a.com/#x"));
+    assertThat(m.get("servers[0].host"), is("a"));
+    assertThat(m.get("servers[0].port"), is("80"));
+    assertThat(m.get("servers[1].host"), is("b\tc"));
+    assertThat(m.get("tags[1]"), is("y, z"));
+    assertThat(m.get("tags[2].k"), is("v"));
+    assertThat(m.get("nested[0][1]"), is("2"));
+    assertThat(m.get("text"), is("line1\n\nline2\n"));
+    assertThat(m.get("folded"), is("a b\nc"));
+    assertThat(m.containsKey("last"), is(false));
+
+    assertError(Formats.YAML, "a: 1\n  b: 2\n", "line 2");
+    assertError(Formats.YAML, "a: &x 1\n", "anchor");
+  }
+
+  @Test
+  public void testDepth() throws Exception {
+    String deep = Strings.repeat("[", 100000);
+    String[] bad = {deep, "a: " + deep, Strings.repeat("- ", 1000) + "a"};
+    IFormat[] formats = {Formats.JSON, Formats.YAML, Formats.YAML};
+    for (int i = 0; i < bad.length; i++) {
+      try {
+        formats[i].parse(new StringReader(bad[i]));
+        fail("too deep");
+      } catch (IOException e) {
+        assertThat(e.getMessage().contains("nesting deeper than"), is(true));
+      }
+    }
+    //上限以内照常解析
+    String ok = Strings.repeat("[", 100) + Strings.repeat("]", 100);
+    assertThat(Formats.JSON.parse(new StringReader(ok)) instanceof List, is(true));
+    assertThat(Formats.YAML.parse(new StringReader("a: " + ok)) instanceof Map, is(true));
+  }
+
+  @Test
+  public void testIni() throws Exception {
+    String s = "top=1\n; comment\n[db]\nurl = jdbc:mysql://a\nuser: \"root\"\n[cache]\nsize=10\n";
+    Map<String, String> m = Formats.flatten(Formats.INI.parse(new StringReader(s)));
+    assertThat(m, is((Map<String, String>) ImmutableMap.of("top", "1", "db.url", "jdbc:mysql://a", "db.user", "root", "cache.size", "10")));
+  }
+
+  @Test
+  public void testForName() throws Exception {
+    assertThat(Formats.forName("app.json"), is(Formats.JSON));
+    assertThat(Formats.forName("app.YML"), is(Formats.YAML));
+    assertThat(Formats.forName("app.ini"), nullValue());
+  }
+
+  private static void assertError(IFormat format, String s, String expect) {
+    try {
+      format.parse(new StringReader(s));
+      fail("expect error: " + s);
+    } catch (IOException e) {
+      assertThat(e.getMessage(), e.getMessage().contains(expect), is(true));
+    }
+  }
+}
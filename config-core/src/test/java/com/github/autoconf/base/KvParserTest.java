@@ -0,0 +1,70 @@
+package com.github.autoconf.base;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 测试字节流kv解析，结果要和按行解析文本完全一致
+ */
+public class KvParserTest {
+  @Test
+  public void testRules() throws Exception {
+    String s = " a = 1 \r\n#b=2\n//c=3\n/d=4\n\n e=\n=f\ng==h\ni=j=k\na=5\n　名字 = 张三　\n";
+    Map<String, String> m = KvParser.parse(s.getBytes(Config.UTF8));
+    assertThat(m.get("a"), is("5"));
+    assertThat(m.containsKey("#b"), is(false));
+    assertThat(m.containsKey("//c"), is(false));
+    assertThat(m.get("/d"), is("4"));
+    assertThat(m.containsKey("e"), is(false));
+    assertThat(m.get(""), is("f"));
+    assertThat(m.get("g"), is("=h"));
+    assertThat(m.get("i"), is("j=k"));
+    assertThat(m.get("名字"), is("张三"));
+    assertThat(m, equalTo(legacy(s)));
+  }
+
+  @Test
+  public void testRandom() throws Exception {
+    String[] parts = {"a", "b", "=", " ", "\t", "\r", "\n", "#", "/", "\u3000", "\u00a0", "\u2028", "值", "\u0001"};
+    Random random = new Random(20261018L);
+    for (int round = 0; round < 2000; round++) {
+      StringBuilder sbd = new StringBuilder();
+      int n = random.nextInt(40);
+      for (int i = 0; i < n; i++) {
+        sbd.append(parts[random.nextInt(parts.length)]);
+      }
+      String s = sbd.toString();
+      assertThat(s, KvParser.parse(s.getBytes(Config.UTF8)), equalTo(legacy(s)));
+    }
+  }
+
+  /**
+   * 原来先解码成文本再按行解析的实现
+   */
+  private Map<String, String> legacy(String txt) {
+    Map<String, String> m = Maps.newLinkedHashMap();
+    List<String> clean = Lists.newArrayList();
+    for (String i : Splitter.on('\n').trimResults().omitEmptyStrings().split(txt)) {
+      if (i.charAt(0) == '#' || i.startsWith("//"))
+        continue;
+      clean.add(i);
+    }
+    for (String i : clean) {
+      int pos = i.indexOf('=');
+      if (pos != -1 && (pos + 1) < i.length()) {
+        m.put(i.substring(0, pos).trim(), i.substring(pos + 1).trim());
+      }
+    }
+    return m;
+  }
+}
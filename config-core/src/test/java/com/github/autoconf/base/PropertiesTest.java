@@ -59,4 +59,23 @@ public class PropertiesTest {
     assertThat(m.getDouble("bool"), is(0.0));
     assertThat(m.getBool("double"), is(false));
   }
+
+  @Test
+  public void testTypedCache() throws Exception {
+    Properties m = new Properties();
+    m.copyOf(ImmutableMap.of("n", "10", "b", "true", "e", ""));
+    assertThat(m.getInt("n"), is(10));
+    assertThat(m.getLong("n"), is(10L));
+    assertThat(m.getDouble("n"), is(10.0));
+    assertThat(m.getBool("n", true), is(false));
+    assertThat(m.getBool("b"), is(true));
+    assertThat(m.getInt("b", 7), is(7));
+    assertThat(m.getInt("e", 8), is(8));
+    assertThat(m.getBool("e", true), is(true));
+    assertThat(m.getInt(null, 9), is(9));
+    //更新配置后缓存的数值随旧快照丢弃
+    m.copyOf(ImmutableMap.of("n", "20"));
+    assertThat(m.getInt("n"), is(20));
+    assertThat(m.getBool("b"), is(false));
+  }
 }
@@ -0,0 +1,43 @@
+package com.github.autoconf.helper;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 测试zookeeper节点内容压缩
+ */
+public class PayloadCodecTest {
+  @Test
+  public void testCodec() throws Exception {
+    byte[] raw = ZookeeperUtil.newBytes(Strings.repeat("server.timeout=3000\n", 1000));
+    byte[] encoded = PayloadCodec.encode(raw);
+    assertThat(PayloadCodec.isEncoded(encoded), is(true));
+    assertThat(encoded.length < raw.length / 10, is(true));
+    assertThat(Arrays.equals(PayloadCodec.decode(encoded), raw), is(true));
+
+    //未压缩的内容原样返回,压缩后没有变小的内容不压缩
+    assertThat(PayloadCodec.decode(raw), sameInstance(raw));
+    byte[] small = ZookeeperUtil.newBytes("a=1");
+    assertThat(PayloadCodec.encode(small), sameInstance(small));
+    assertThat(PayloadCodec.decode(new byte[0]).length, is(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCorrupt() throws Exception {
+    byte[] encoded = PayloadCodec.encode(ZookeeperUtil.newBytes(Strings.repeat("a=1\n", 100)));
+    PayloadCodec.decode(Arrays.copyOf(encoded, encoded.length / 2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLarge() throws Exception {
+    byte[] encoded = PayloadCodec.encode(new byte[PayloadCodec.MAX_DECODED + 1]);
+    assertThat(encoded.length < 1 << 20, is(true));
+    PayloadCodec.decode(encoded);
+  }
+}
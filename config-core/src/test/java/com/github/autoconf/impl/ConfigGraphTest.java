@@ -0,0 +1,95 @@
+package com.github.autoconf.impl;
+
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IChangeableConfig;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.base.ChangeableConfig;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 测试计算配置只重新计算受影响的节点，汇合节点只通知1次
+ */
+public class ConfigGraphTest {
+  @Test
+  public void testDiamond() throws Exception {
+    ChangeableConfig source = new ChangeableConfig("source");
+    source.copyOf(ImmutableMap.of("x.a", "1", "y.a", "2", "z", "3"));
+    ChangeableConfig local = new ChangeableConfig("local");
+    local.copyOf(ImmutableMap.of("x.a", "10"));
+
+    ConfigGraph graph = new ConfigGraph();
+    IChangeableConfig xs = graph.filter("xs", source, prefix("x."));
+    IChangeableConfig ys = graph.rename("ys", graph.filter("y", source, prefix("y.")), "y.", "x.");
+    IChangeableConfig overlay = graph.overlay("overlay", ImmutableList.of(local, xs));
+    final AtomicInteger computed = new AtomicInteger(0);
+    IChangeableConfig joined = graph.node("joined", ImmutableList.of(overlay, ys), new Function<List<IConfig>, Map<String, String>>() {
+      @Override
+      public Map<String, String> apply(List<IConfig> input) {
+        computed.incrementAndGet();
+        Map<String, String> m = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> i : input.get(0).getAll().entrySet()) {
+          m.put(i.getKey(), i.getValue() + "," + input.get(1).get(i.getKey(), ""));
+        }
+        return m;
+      }
+    });
+    assertThat(xs.getAll(), is((Object) ImmutableMap.of("x.a", "1")));
+    assertThat(ys.getAll(), is((Object) ImmutableMap.of("x.a", "2")));
+    assertThat(joined.get("x.a"), is("10,2"));
+    assertThat(computed.get(), is(1));
+
+    final AtomicInteger notified = new AtomicInteger(0);
+    joined.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        notified.incrementAndGet();
+      }
+    }, false);
+
+    //两条路径都变化，汇合节点只计算1次、通知1次
+    source.copyOf(ImmutableMap.of("x.a", "1", "x.b", "4", "y.a", "5", "z", "3"));
+    source.notifyListeners();
+    assertThat(computed.get(), is(2));
+    assertThat(notified.get(), is(1));
+    assertThat(joined.getAll(), is((Object) ImmutableMap.of("x.a", "10,5", "x.b", "4,")));
+
+    //无关的key变化，下游都不重新计算
+    source.copyOf(ImmutableMap.of("x.a", "1", "x.b", "4", "y.a", "5", "z", "6"));
+    source.notifyListeners();
+    assertThat(computed.get(), is(2));
+    assertThat(notified.get(), is(1));
+
+    //被本地覆盖的key变化，叠加结果不变，汇合节点不重新计算
+    source.copyOf(ImmutableMap.of("x.a", "7", "x.b", "4", "y.a", "5", "z", "6"));
+    source.notifyListeners();
+    assertThat(xs.get("x.a"), is("7"));
+    assertThat(computed.get(), is(2));
+
+    local.copyOf(ImmutableMap.of("x.a", "11"));
+    local.notifyListeners();
+    assertThat(computed.get(), is(3));
+    assertThat(notified.get(), is(2));
+    assertThat(joined.get("x.a"), is("11,5"));
+  }
+
+  private static Predicate<String> prefix(final String prefix) {
+    return new Predicate<String>() {
+      @Override
+      public boolean apply(String input) {
+        return input.startsWith(prefix);
+      }
+    };
+  }
+}
@@ -3,8 +3,11 @@ package com.github.autoconf.impl;
 import com.github.autoconf.api.IChangeListener;
 import com.github.autoconf.api.IChangeableConfig;
 import com.github.autoconf.api.IConfig;
+import com.github.autoconf.api.IConfigDiff;
+import com.github.autoconf.api.IDiffListener;
 import com.github.autoconf.base.ChangeableConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import org.junit.Test;
 
@@ -45,10 +48,75 @@ public class MergedConfigTest {
 
     assertThat(count.get(), is(1));
     //第一个文件变更通知
+    first.copyOf(ImmutableMap.of("mix", "m1", "k1", "v11"));
     first.notifyListeners();
     assertThat(count.get(), is(2));
+    assertThat(merged.get("k1"), is("v11"));
     //第二个文件变更通知
+    second.copyOf(ImmutableMap.of("mix", "m2", "k2", "v22"));
     second.notifyListeners();
     assertThat(count.get(), is(3));
+    assertThat(merged.get("k2"), is("v22"));
+    //被第一个文件覆盖的key变化，生效值不变，不通知
+    second.copyOf(ImmutableMap.of("mix", "m3", "k2", "v22"));
+    second.notifyListeners();
+    assertThat(count.get(), is(3));
+    assertThat(merged.get("mix"), is("m1"));
+    //删除第一个文件的key以后使用第二个文件的值，新增的key排在最后
+    first.copyOf(ImmutableMap.of("k1", "v11", "k3", "v3"));
+    first.notifyListeners();
+    assertThat(count.get(), is(4));
+    assertThat(merged.get("mix"), is("m3"));
+    assertThat(Lists.newArrayList(merged.getAll().keySet()), is((List<String>) Lists.newArrayList("mix", "k1", "k2", "k3")));
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    ChangeableConfig first = new ChangeableConfig("first");
+    first.copyOf(ImmutableMap.of("mix", "m1", "k1", "v1"));
+    ChangeableConfig second = new ChangeableConfig("second");
+    second.copyOf(ImmutableMap.of("mix", "m2", "k2", "v2"));
+    MergedConfig merged = new MergedConfig(Lists.<IChangeableConfig>newArrayList(first, second), true);
+    assertThat(merged.isLookup(), is(true));
+    assertThat(merged.get("mix"), is("m1"));
+    assertThat(merged.get("k2"), is("v2"));
+    assertThat(merged.has("k3"), is(false));
+    assertThat(merged.getAll().size(), is(3));
+    assertThat(Lists.newArrayList(merged.getAll().keySet()), is((List<String>) Lists.newArrayList("mix", "k1", "k2")));
+
+    final AtomicInteger count = new AtomicInteger(0);
+    merged.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        count.incrementAndGet();
+      }
+    }, false);
+    final List<IConfigDiff> diffs = Lists.newArrayList();
+    merged.addDiffListener(new IDiffListener() {
+      @Override
+      public void changed(IConfig config, IConfigDiff diff) {
+        diffs.add(diff);
+      }
+    }, false);
+    //被覆盖的key变化，生效内容和版本都不变
+    long version = merged.getVersion();
+    second.copyOf(ImmutableMap.of("mix", "m3", "k2", "v2"));
+    second.notifyListeners();
+    assertThat(count.get(), is(0));
+    assertThat(merged.getVersion(), is(version));
+
+    first.copyOf(ImmutableMap.of("k1", "v11"));
+    first.notifyListeners();
+    assertThat(count.get(), is(1));
+    assertThat(merged.get("mix"), is("m3"));
+    assertThat(merged.get("k1"), is("v11"));
+    assertThat(merged.getInt("k1", 7), is(7));
+    //差异直接由变化的key生成
+    assertThat(diffs.size(), is(1));
+    assertThat(diffs.get(0).getChanged(), is((Object) ImmutableSet.of("mix", "k1")));
+    assertThat(diffs.get(0).getOldValue("mix"), is("m1"));
+    assertThat(diffs.get(0).getNewValue("mix"), is("m3"));
+    assertThat(diffs.get(0).getNewVersion(), is(merged.getVersion()));
+    assertThat(merged.getAll(), is((Object) ImmutableMap.of("k1", "v11", "mix", "m3", "k2", "v2")));
   }
 }
@@ -0,0 +1,83 @@
+package com.github.autoconf.impl;
+
+import com.google.common.collect.Lists;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 测试恢复任务的并发限制和优先级
+ */
+public class RecoverySchedulerTest {
+  //只作为区分连接的key，不需要启动
+  private final CuratorFramework client = CuratorFrameworkFactory.newClient("127.0.0.1:2181", new RetryOneTime(1));
+
+  @Test
+  public void testConcurrency() throws Exception {
+    RecoveryScheduler scheduler = new RecoveryScheduler(0, 2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < 8; i++) {
+      scheduler.submit(client, new Runnable() {
+        @Override
+        public void run() {
+          int n = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), n));
+          }
+          sleep(100);
+          running.decrementAndGet();
+        }
+      }, i >= 5);
+    }
+    await(scheduler);
+    assertThat(scheduler.getRecoveries(), is(1L));
+    assertThat(scheduler.getExecuted(), is(8L));
+    assertThat(scheduler.getRecovering(), is(0));
+    assertThat(maxRunning.get(), is(2));
+    assertThat(scheduler.getLastRecoveryMillis() >= 400, is(true));
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    //只有1个并发时任务交出去的顺序就是执行的顺序，不受线程调度影响
+    RecoveryScheduler scheduler = new RecoveryScheduler(0, 1);
+    final List<String> order = Collections.synchronizedList(Lists.<String>newArrayList());
+    for (int i = 0; i < 8; i++) {
+      final String name = (i >= 5 ? "p" : "n") + i;
+      scheduler.submit(client, new Runnable() {
+        @Override
+        public void run() {
+          order.add(name);
+          sleep(100);
+        }
+      }, i >= 5);
+    }
+    await(scheduler);
+    assertThat(scheduler.getExecuted(), is(8L));
+    //第1个任务马上执行，之后等待的任务里有listener的排在前面
+    assertThat(order, is((List<String>) Lists.newArrayList("n0", "p5", "p6", "p7", "n1", "n2", "n3", "n4")));
+  }
+
+  private static void await(RecoveryScheduler scheduler) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (scheduler.getRecoveries() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ignored) {
+    }
+  }
+}
@@ -1,10 +1,17 @@
 package com.github.autoconf.impl;
 
+import com.github.autoconf.api.IChangeListener;
+import com.github.autoconf.api.IConfig;
+import com.github.autoconf.helper.PayloadCodec;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.retry.BoundedExponentialBackoffRetry;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.utils.ZKPaths;
@@ -17,7 +24,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.autoconf.helper.ZookeeperUtil.*;
@@ -170,6 +180,233 @@ public class RemoteConfigTest {
     assertThat(at.get(), is(NodeCreated.getIntValue()));
   }
 
+  @Test
+  public void testCoalescing() throws Exception {
+    String basePath = "/auto/config/coalesce";
+    String appPath = ZKPaths.makePath(basePath, "appName");
+    create(client, appPath, newBytes("a=0"));
+    RemoteConfig config = new RemoteConfig("coalesce.ini", basePath, Lists.newArrayList("appName"), client);
+    config.setCoalescing(300, 1000);
+    config.start();
+    assertThat(config.getInt("a"), is(0));
+    final AtomicInteger count = new AtomicInteger(0);
+    config.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        count.incrementAndGet();
+      }
+    }, false);
+    //连续多次修改只加载并通知1次最新版本
+    for (int i = 1; i <= 5; i++) {
+      setData(client, appPath, newBytes("a=" + i));
+    }
+    Thread.sleep(1000);
+    assertThat(config.getInt("a"), is(5));
+    assertThat(count.get(), is(1));
+    assertThat(config.getDebouncer().getExecuted(), is(1L));
+  }
+
+  @Test
+  public void testCompressed() throws Exception {
+    String basePath = "/auto/config/compressed";
+    ArrayList<String> paths = Lists.newArrayList("profile");
+    String profilePath = ZKPaths.makePath(basePath, "profile");
+    create(client, profilePath, PayloadCodec.encode(newBytes(Strings.repeat("a=1\n", 100))));
+    RemoteConfig config = new RemoteConfig("compressed.ini", basePath, paths, client);
+    config.start();
+    assertThat(config.getInt("a"), is(1));
+    final AtomicInteger num = new AtomicInteger(0);
+    config.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        num.incrementAndGet();
+      }
+    }, false);
+
+    //内容相同的未压缩版本不算变化
+    setData(client, profilePath, newBytes(Strings.repeat("a=1\n", 100)));
+    busyWait();
+    assertThat(num.get(), is(0));
+    setData(client, profilePath, PayloadCodec.encode(newBytes(Strings.repeat("a=2\n", 100))));
+    busyWait();
+    assertThat(num.get(), is(1));
+    assertThat(config.getInt("a"), is(2));
+  }
+
+  @Test
+  public void testResync() throws Exception {
+    String basePath = "/auto/config/resync";
+    ArrayList<String> paths = Lists.newArrayList("127.0.0.1", "profile");
+    create(client, ZKPaths.makePath(basePath, "127.0.0.1"), new byte[0]);
+    create(client, ZKPaths.makePath(basePath, "profile"), newBytes("a=1"));
+    final AtomicInteger loads = new AtomicInteger(0);
+    //忽略watcher通知，模拟断开期间丢失的变更
+    RemoteConfig config = new RemoteConfig("resync.ini", basePath, paths, client) {
+      @Override
+      protected void changed() {
+      }
+
+      @Override
+      protected void loadFromZookeeper() {
+        loads.incrementAndGet();
+        super.loadFromZookeeper();
+      }
+    };
+    config.start();
+    assertThat(config.getInt("a"), is(1));
+    assertThat(config.getSeen().size(), is(3));
+
+    //没有变化只检查版本
+    loads.set(0);
+    assertThat(config.resync(), is(false));
+    assertThat(loads.get(), is(0));
+
+    setData(client, ZKPaths.makePath(basePath, "profile"), newBytes("a=2"));
+    assertThat(config.resync(), is(true));
+    assertThat(loads.get(), is(1));
+    assertThat(config.getInt("a"), is(2));
+    assertThat(config.resync(), is(false));
+
+    //优先级更高的空节点有了内容
+    setData(client, ZKPaths.makePath(basePath, "127.0.0.1"), newBytes("a=3"));
+    assertThat(config.resync(), is(true));
+    assertThat(config.getInt("a"), is(3));
+
+    //新增无关节点也会改变子节点版本
+    create(client, ZKPaths.makePath(basePath, "other"), newBytes("a=4"));
+    assertThat(config.resync(), is(true));
+    assertThat(config.getInt("a"), is(3));
+    assertThat(loads.get(), is(3));
+  }
+
+  @Test
+  public void testStaleAsyncLoad() throws Exception {
+    String basePath = "/auto/config/stale";
+    ArrayList<String> paths = Lists.newArrayList("profile");
+    final String profile = ZKPaths.makePath(basePath, "profile");
+    create(client, profile, newBytes("a=1"));
+    final List<String> reloads = Collections.synchronizedList(Lists.<String>newArrayList());
+    final RemoteConfig config = new RemoteConfig("stale.ini", basePath, paths, client) {
+      @Override
+      protected boolean reload(byte[] payload) {
+        reloads.add(newString(payload));
+        return super.reload(payload);
+      }
+    };
+    //先卡住zookeeper的事件线程，保证子节点列表的回调发出读取请求以后，下一个回调马上卡住事件线程，
+    //这样异步加载读到a=1以后先不处理
+    CountDownLatch first = block(basePath);
+    ListenableFuture<Boolean> future = config.startAsync();
+    CountDownLatch second = block(basePath);
+    first.countDown();
+    busyWait();
+    setData(client, profile, newBytes("a=2"));
+    config.loadFromZookeeper();
+    assertThat(config.getInt("a"), is(2));
+    second.countDown();
+    assertThat(future.get(5, TimeUnit.SECONDS), is(true));
+    busyWait();
+    //异步读到的旧内容不能覆盖更晚加载的内容
+    assertThat(config.getInt("a"), is(2));
+    assertThat(reloads.contains("a=1"), is(false));
+  }
+
+  @Test
+  public void testNotifyOutsideLock() throws Exception {
+    String basePath = "/auto/config/unlocked";
+    final String profile = ZKPaths.makePath(basePath, "profile");
+    create(client, profile, newBytes("a=1"));
+    final RemoteConfig config = new RemoteConfig("unlocked.ini", basePath, Lists.newArrayList("profile"), client) {
+      @Override
+      protected void changed() {
+      }
+    };
+    config.start();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger(0);
+    config.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        //只卡住第1次通知
+        if (calls.incrementAndGet() > 1) {
+          return;
+        }
+        entered.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+      }
+    }, false);
+    setData(client, profile, newBytes("a=2"));
+    Thread slow = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        config.loadFromZookeeper();
+      }
+    });
+    slow.start();
+    assertThat(entered.await(5, TimeUnit.SECONDS), is(true));
+    //listener还没返回，其他加载不用等待
+    setData(client, profile, newBytes("a=3"));
+    long start = System.currentTimeMillis();
+    assertThat(config.resync(), is(true));
+    assertThat(config.getInt("a"), is(3));
+    assertThat(System.currentTimeMillis() - start < 2000, is(true));
+    assertThat(calls.get(), is(2));
+    release.countDown();
+    slow.join();
+  }
+
+  @Test
+  public void testAsyncWatch() throws Exception {
+    String basePath = "/auto/config/async";
+    ArrayList<String> paths = Lists.newArrayList("127.0.0.1", "profile", "appName");
+    create(client, ZKPaths.makePath(basePath, "127.0.0.1"), new byte[0]);
+    create(client, ZKPaths.makePath(basePath, "profile"), newBytes("a=1"));
+    create(client, ZKPaths.makePath(basePath, "appName"), newBytes("a=0"));
+    final AtomicInteger loads = new AtomicInteger(0);
+    RemoteConfig config = new RemoteConfig("async.ini", basePath, paths, client) {
+      @Override
+      protected void loadFromZookeeper() {
+        loads.incrementAndGet();
+        super.loadFromZookeeper();
+      }
+    };
+    assertThat(config.startAsync().get(5, TimeUnit.SECONDS), is(true));
+    assertThat(config.getInt("a"), is(1));
+    busyWait();
+
+    //优先级更低、没有用到的节点变化不触发加载
+    setData(client, ZKPaths.makePath(basePath, "appName"), newBytes("a=2"));
+    busyWait();
+    assertThat(loads.get(), is(0));
+
+    //找到内容的节点和优先级更高的空节点变化都会重新加载
+    setData(client, ZKPaths.makePath(basePath, "profile"), newBytes("a=3"));
+    busyWait();
+    assertThat(config.getInt("a"), is(3));
+    setData(client, ZKPaths.makePath(basePath, "127.0.0.1"), newBytes("a=4"));
+    busyWait();
+    assertThat(config.getInt("a"), is(4));
+    assertThat(loads.get(), is(2));
+  }
+
+  /**
+   * 在zookeeper的事件线程里等待，直到返回的latch被释放
+   */
+  private static CountDownLatch block(String path) throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    client.checkExists().inBackground(new BackgroundCallback() {
+      @Override
+      public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+        latch.await(5, TimeUnit.SECONDS);
+      }
+    }).forPath(path);
+    return latch;
+  }
+
   private void busyWait() throws InterruptedException {
     Thread.sleep(100);
   }
@@ -95,6 +95,38 @@ public class RemoteConfigWithCacheTest {
     TestHelper.deleteFile(cacheFile);
   }
 
+  @Test
+  public void testMapped() throws Exception {
+    String basePath = "/auto/config/testMapped";
+    ArrayList<String> paths = Lists.newArrayList("profile", "appName");
+    File cacheFile = File.createTempFile("cache-", ".ini");
+    TestHelper.writeFile(ZookeeperUtil.newBytes("a=1\nb=名字"), cacheFile);
+    RemoteConfigWithCache config = new RemoteConfigWithCache("mapped.ini", basePath, paths, client, cacheFile);
+    config.setDelaySeconds(1);
+    config.setMmapThreshold(0);
+    config.start();
+    assertThat(config.getInt("a"), is(1));
+    assertThat(config.get("b"), is("名字"));
+    assertThat(config.toString().contains("mapped=true"), is(true));
+
+    final AtomicInteger num = new AtomicInteger(0);
+    config.addListener(new IChangeListener() {
+      @Override
+      public void changed(IConfig config) {
+        num.incrementAndGet();
+      }
+    }, false);
+    //远程更新后映射新写入的缓存文件
+    ZookeeperUtil.create(client, ZKPaths.makePath(basePath, "appName"), ZookeeperUtil.newBytes("a=2"));
+    TestHelper.busyWait(num);
+    assertThat(config.getInt("a"), is(2));
+    assertThat(config.get("b"), is((String) null));
+    assertThat(config.toString().contains("mapped=true"), is(true));
+    assertThat(ZookeeperUtil.newString(Files.toByteArray(cacheFile)), is("a=2"));
+
+    TestHelper.deleteFile(cacheFile);
+  }
+
   /**
    * 本地没有配置,必须从远程服务拉取
    *
@@ -114,6 +146,8 @@ public class RemoteConfigWithCacheTest {
     config.start();
     assertThat(config.getInt("a"), is(1));
     assertThat(ZookeeperUtil.newString(Files.toByteArray(cacheFile)), is(s));
+    //临时文件已经rename成缓存文件
+    assertThat(tempDir.list().length, is(1));
     TestHelper.deleteFile(cacheFile);
     TestHelper.deleteFile(tempDir);
   }
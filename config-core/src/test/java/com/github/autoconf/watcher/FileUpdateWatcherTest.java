@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -52,6 +53,15 @@ public class FileUpdateWatcherTest {
       delete(f1);
       busyWait(num);
       assertThat(num.get(), is(1));
+
+      //先写临时文件再rename替换,只有创建事件
+      Thread.sleep(2000);
+      num.set(0);
+      File tmp = new File(d1, ".update.txt.tmp");
+      write(ZookeeperUtil.newBytes("a=2"), tmp);
+      java.nio.file.Files.move(tmp.toPath(), f1.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      busyWait(num);
+      assertThat(num.get(), is(1));
     } finally {
       delete(f1);
       delete(d1);
@@ -3,6 +3,7 @@ package com.github.autoconf.service;
 import com.github.autoconf.entity.Config;
 import com.github.autoconf.entity.ConfigHistory;
 import com.github.autoconf.helper.ConfigHelper;
+import com.github.autoconf.helper.PayloadCodec;
 import com.github.autoconf.helper.ZookeeperUtil;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
@@ -44,6 +45,11 @@ public class ZookeeperService {
   private String auth = "root:Password4Zookeeper";
   @Value("${zookeeper.basePath}")
   private String zkPath = "/cms/config";
+  /**
+   * 超过这个大小的配置压缩以后再发布，0表示不压缩。使用的客户端都升级到支持压缩的版本以后再开启
+   */
+  @Value("${zookeeper.compressThreshold:0}")
+  private int compressThreshold = 0;
   private CuratorFramework client;
   private List<ACL> defaultAclList = Lists.newArrayList();
 
@@ -93,6 +99,9 @@ public class ZookeeperService {
       } else {
         payload = ZookeeperUtil.newBytes(config.getContent());
       }
+      if (compressThreshold > 0 && payload.length >= compressThreshold) {
+        payload = PayloadCodec.encode(payload);
+      }
       if (ZookeeperUtil.exists(client, path) != null) {
         ZookeeperUtil.setData(client, path, payload);
       } else {
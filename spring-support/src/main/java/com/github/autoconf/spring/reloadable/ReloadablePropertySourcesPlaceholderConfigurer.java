@@ -73,10 +73,11 @@ public class ReloadablePropertySourcesPlaceholderConfigurer extends PropertySour
       if (configFactory == null) {
         configFactory = ConfigFactory.getInstance();
       }
-      IChangeableConfig config = configFactory.getConfig(configName, new IChangeListener() {
+      IChangeableConfig config = configFactory.getConfig(configName);
+      config.addDiffListener(new IDiffListener() {
         @Override
-        public void changed(IConfig config) {
-          reloadCmsConfig(config);
+        public void changed(IConfig config, IConfigDiff diff) {
+          reloadCmsConfig(diff);
         }
       }, false);
       props.putAll(config.getAll());
@@ -89,6 +90,22 @@ public class ReloadablePropertySourcesPlaceholderConfigurer extends PropertySour
     updateProperty(p);
   }
 
+  /**
+   * 只更新发生变化的key，删除的key保持原来的值
+   */
+  private void reloadCmsConfig(IConfigDiff diff) {
+    final Properties p = new Properties();
+    for (String i : diff.getKeys()) {
+      String v = diff.getNewValue(i);
+      if (v != null) {
+        p.put(i, v);
+      }
+    }
+    if (!p.isEmpty()) {
+      updateProperty(p);
+    }
+  }
+
   private void updateProperty(Properties reloadedProperties) {
     PropertySources appliedSources = getAppliedPropertySources();
     MutablePropertySources oldSources = new MutablePropertySources();
@@ -112,6 +129,10 @@ public class ReloadablePropertySourcesPlaceholderConfigurer extends PropertySour
       PropertySourcesPropertyResolver newResolver = buildPropertyResolver(appliedSources);
 
       for (final String property : localPropertySource.getPropertyNames()) {
+        //没有更新并且不引用其他配置的属性，新旧值一定相同，不用再解析对比
+        if (!reloadedProperties.containsKey(property) && !hasPlaceholder(localPropertySource.getProperty(property))) {
+          continue;
+        }
         final String oldValue = oldResolver.getProperty(property);
         final String newValue = newResolver.getProperty(property);
 
@@ -126,6 +147,10 @@ public class ReloadablePropertySourcesPlaceholderConfigurer extends PropertySour
     }
   }
 
+  private boolean hasPlaceholder(Object value) {
+    return value instanceof String && ((String) value).contains(this.placeholderPrefix);
+  }
+
   public void startWatching() {
     if (null == this.eventNotifier) {
       throw new BeanInitializationException("Event bus not setup, you should not be calling this method...!");